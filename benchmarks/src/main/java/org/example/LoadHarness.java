@@ -0,0 +1,537 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.telegram.telegrambots.meta.api.objects.Chat;
+import org.telegram.telegrambots.meta.api.objects.Message;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Нагрузочный прогон бота целиком: обновления подаются в onUpdateReceived, ответы перехватывает
+ * транспорт-заглушка в том же процессе. Задержка считается от передачи обновления боту до вызова
+ * транспорта с ответом в тот же чат, то есть включает диспетчер, обработку и очередь отправки.
+ *
+ * Режимы:
+ * синтетический - chats чатов проходят тест command, начиная равномерно в течение rampSeconds;
+ * между ответом бота и следующим сообщением чат "думает" (экспоненциально, в среднем thinkMs мс),
+ * после каждого вопроса бросает тест с вероятностью abandon, а доля batch чатов вводит баллы
+ * одной командой; record=файл сохраняет поданные обновления в JSONL для повторного прогона;
+ * повтор - replay=файл подает обновления из JSONL (формат Telegram), выдерживая интервалы по полю
+ * date с ускорением speed (0 - без пауз); copies=N размножает поток на N непересекающихся наборов чатов.
+ *
+ * Каждые reportSeconds выводятся пропускная способность, p50/p99/p999 задержки за интервал,
+ * занятая куча, сборки мусора и число сессий; в конце - итог за весь прогон.
+ * Параметры передаются как имя=значение; имена из заглавных букв передаются в конфигурацию бота
+ * (например, DISPATCH_THREADS=8). Ограничения частоты отправки по умолчанию сняты, чтобы
+ * измерялся сам бот, а не лимиты Telegram.
+ *
+ * Запуск: java -cp target/benchmarks.jar org.example.LoadHarness chats=100000 thinkMs=2000
+ */
+public class LoadHarness {
+    // Первый идентификатор синтетических чатов
+    private static final long FIRST_CHAT_ID = 1_000_000_000L;
+
+    // Сдвиг идентификаторов чатов между копиями повторяемого потока
+    private static final long COPY_OFFSET = 1L << 40;
+
+    private final Map<String, String> options;
+    private final MedicalDiagnosisBot bot;
+    private final ScheduledExecutorService drivers;
+    private final AtomicInteger nextUpdateId = new AtomicInteger();
+
+    // Задержки за весь прогон и за текущий интервал отчета
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final AtomicReference<LatencyHistogram> interval = new AtomicReference<>(new LatencyHistogram());
+
+    private final AtomicLong updatesSent = new AtomicLong();
+    private final AtomicLong repliesReceived = new AtomicLong();
+
+    private volatile Workload workload;
+
+    private LoadHarness(Map<String, String> options, Map<String, String> botConfig) {
+        this.options = options;
+        this.bot = new MedicalDiagnosisBot(BotConfig.of(botConfig), message -> {
+            onReply(Long.parseLong(message.getChatId()));
+            return CompletableFuture.completedFuture(null);
+        });
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.drivers = Executors.newScheduledThreadPool(intOption("drivers", 4), r -> {
+            Thread thread = new Thread(r, "load-driver-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        Map<String, String> botConfig = new HashMap<>();
+        botConfig.put("BOT_TOKEN", "load");
+        botConfig.put("BOT_USERNAME", "load");
+        botConfig.put("OUTBOUND_GLOBAL_RATE", "100000000");
+        botConfig.put("OUTBOUND_CHAT_RATE", "1000000");
+        botConfig.put("OUTBOUND_CHAT_BURST", "1000000");
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Параметр должен иметь вид имя=значение: " + arg);
+            }
+            String name = arg.substring(0, eq);
+            (name.equals(name.toUpperCase()) ? botConfig : options).put(name, arg.substring(eq + 1));
+        }
+
+        LoadHarness harness = new LoadHarness(options, botConfig);
+        try {
+            harness.run();
+        } finally {
+            harness.drivers.shutdownNow();
+            harness.bot.onClosing();
+        }
+    }
+
+    private void run() throws Exception {
+        String replay = options.get("replay");
+        workload = replay != null ? new ReplayLoad(replay) : new SyntheticLoad();
+        long durationNanos = TimeUnit.SECONDS.toNanos(intOption("durationSeconds", 600));
+        long reportNanos = TimeUnit.SECONDS.toNanos(intOption("reportSeconds", 5));
+
+        System.out.println("сек      обновл/с   ответ/с    p50,мс    p99,мс   p999,мс   куча,МБ  GC,шт  GC,мс   сессии");
+        long started = System.nanoTime();
+        long lastReport = started;
+        long lastReplies = 0;
+        long lastUpdates = 0;
+        long[] lastGc = gcTotals();
+        long lastProgress = started;
+        long progressReplies = 0;
+        workload.start();
+        while (true) {
+            long now = System.nanoTime();
+            long sleep = Math.min(reportNanos - (now - lastReport), durationNanos - (now - started));
+            if (repliesReceived.get() != progressReplies) {
+                progressReplies = repliesReceived.get();
+                lastProgress = now;
+            }
+            // Прогон закончен, когда все обновления поданы и ответы получены; на часть обновлений
+            // (повторы, неподдерживаемые типы) бот не отвечает, поэтому достаточно секунды без ответов
+            boolean done = workload.isDone() && (updatesSent.get() == progressReplies
+                    || now - lastProgress > TimeUnit.SECONDS.toNanos(1));
+            if (!done && sleep > 0) {
+                TimeUnit.NANOSECONDS.sleep(Math.min(sleep, TimeUnit.MILLISECONDS.toNanos(100)));
+                continue;
+            }
+
+            LatencyHistogram current = interval.getAndSet(new LatencyHistogram());
+            long replies = repliesReceived.get();
+            long updates = updatesSent.get();
+            long[] gc = gcTotals();
+            double seconds = (now - lastReport) / 1e9;
+            System.out.printf("%-8.1f %9.0f %9.0f %9.2f %9.2f %9.2f %9d %6d %6d %8d%n",
+                    (now - started) / 1e9,
+                    (updates - lastUpdates) / seconds,
+                    (replies - lastReplies) / seconds,
+                    millis(current.getQuantile(0.5)),
+                    millis(current.getQuantile(0.99)),
+                    millis(current.getQuantile(0.999)),
+                    usedHeapMegabytes(),
+                    gc[0] - lastGc[0],
+                    gc[1] - lastGc[1],
+                    bot.getSessionCount());
+            lastReport = now;
+            lastReplies = replies;
+            lastUpdates = updates;
+            lastGc = gc;
+
+            if (done || now - started >= durationNanos) {
+                printSummary((now - started) / 1e9, gc);
+                return;
+            }
+        }
+    }
+
+    private void printSummary(double seconds, long[] gc) {
+        System.out.println();
+        System.out.printf("Длительность: %.1f с, обновлений: %d, ответов: %d (%.0f/с)%n",
+                seconds, updatesSent.get(), repliesReceived.get(), repliesReceived.get() / seconds);
+        System.out.printf("Задержка, мс: p50 %.2f, p99 %.2f, p999 %.2f, макс. %.2f%n",
+                millis(total.getQuantile(0.5)), millis(total.getQuantile(0.99)),
+                millis(total.getQuantile(0.999)), millis(total.getQuantile(1.0)));
+        System.out.printf("Сборки мусора: %d, суммарно %d мс; незавершенных сессий: %d%n",
+                gc[0], gc[1], bot.getSessionCount());
+        System.out.println(workload.summary());
+    }
+
+    /**
+     * Передает обновление боту и запоминает момент передачи для чата
+     */
+    private void send(Update update, long chatId) {
+        workload.stamp(chatId, System.nanoTime());
+        updatesSent.incrementAndGet();
+        bot.onUpdateReceived(update);
+    }
+
+    private void onReply(long chatId) {
+        long now = System.nanoTime();
+        long stamp = workload.takeStamp(chatId);
+        if (stamp != 0) {
+            total.record(now - stamp);
+            interval.get().record(now - stamp);
+        }
+        repliesReceived.incrementAndGet();
+        workload.onReply(chatId);
+    }
+
+    private Update textUpdate(long chatId, String text) {
+        Chat chat = new Chat();
+        chat.setId(chatId);
+        chat.setType("private");
+        Message message = new Message();
+        message.setChat(chat);
+        message.setText(text);
+        message.setDate((int) (System.currentTimeMillis() / 1000));
+        Update update = new Update();
+        update.setUpdateId(nextUpdateId.incrementAndGet());
+        update.setMessage(message);
+        return update;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private double doubleOption(String name, double defaultValue) {
+        String value = options.get(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static long usedHeapMegabytes() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20;
+    }
+
+    /**
+     * @return суммарное число сборок мусора и их время, мс
+     */
+    private static long[] gcTotals() {
+        long count = 0;
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, time};
+    }
+
+    /**
+     * Источник обновлений прогона
+     */
+    private interface Workload {
+        void start() throws IOException;
+
+        /**
+         * Запомнить момент передачи обновления чата
+         */
+        void stamp(long chatId, long nanos);
+
+        /**
+         * @return момент передачи самого раннего обновления чата без ответа (0 - неизвестен)
+         */
+        long takeStamp(long chatId);
+
+        void onReply(long chatId);
+
+        /**
+         * @return true, если все обновления поданы
+         */
+        boolean isDone();
+
+        String summary();
+    }
+
+    /**
+     * Синтетические чаты, проходящие тест. У каждого чата не больше одного обновления без ответа,
+     * поэтому состояние хранится в массивах по номеру чата.
+     */
+    private final class SyntheticLoad implements Workload {
+        private final DiagnosticTest test;
+        private final int chats;
+        private final double thinkMillis;
+        private final double abandon;
+        private final double batch;
+        private final long rampNanos;
+
+        // Номер следующего шага чата (0 - команда запуска) и момент передачи последнего обновления
+        private final int[] steps;
+        private final long[] stamps;
+
+        private final AtomicInteger finished = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger abandoned = new AtomicInteger();
+
+        // Запись поданных обновлений (null - не ведется)
+        private final BufferedWriter recorder;
+        private final ObjectMapper mapper = new ObjectMapper();
+
+        private SyntheticLoad() throws IOException {
+            String command = options.getOrDefault("command", "/glasgow");
+            this.test = bot.getCatalog().findByCommand(command);
+            if (test == null) {
+                throw new IllegalArgumentException("Тест с командой " + command + " не найден");
+            }
+            this.chats = intOption("chats", 100_000);
+            this.thinkMillis = doubleOption("thinkMs", 1000);
+            this.abandon = doubleOption("abandon", 0.05);
+            this.batch = doubleOption("batch", 0);
+            this.rampNanos = TimeUnit.SECONDS.toNanos(intOption("rampSeconds", 10));
+            this.steps = new int[chats];
+            this.stamps = new long[chats];
+            String record = options.get("record");
+            this.recorder = record != null
+                    ? Files.newBufferedWriter(Paths.get(record), StandardCharsets.UTF_8)
+                    : null;
+        }
+
+        @Override
+        public void start() {
+            for (int i = 0; i < chats; i++) {
+                int chat = i;
+                long delay = chats > 1 ? rampNanos * i / (chats - 1) : 0;
+                drivers.schedule(() -> next(chat), delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void next(int chat) {
+            int step = steps[chat]++;
+            String text;
+            if (step == 0 && ThreadLocalRandom.current().nextDouble() < batch) {
+                // Ответом на команду с баллами будет результат теста
+                text = batchCommand();
+                steps[chat] = test.getQuestionCount() + 1;
+            } else if (step == 0) {
+                text = test.getCommand();
+            } else {
+                int answers = test.getQuestion(step - 1).getAnswerCount();
+                text = Integer.toString(1 + ThreadLocalRandom.current().nextInt(answers));
+            }
+            Update update = textUpdate(FIRST_CHAT_ID + chat, text);
+            record(update);
+            send(update, FIRST_CHAT_ID + chat);
+        }
+
+        private String batchCommand() {
+            StringBuilder text = new StringBuilder(test.getCommand());
+            for (DiagnosticQuestion question : test.getQuestions()) {
+                int answer = ThreadLocalRandom.current().nextInt(question.getAnswerCount());
+                text.append(' ').append(question.getAnswerValue(answer));
+            }
+            return text.toString();
+        }
+
+        private void record(Update update) {
+            if (recorder == null) {
+                return;
+            }
+            try {
+                String line = mapper.writeValueAsString(update);
+                synchronized (recorder) {
+                    recorder.write(line);
+                    recorder.newLine();
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Не удалось записать обновление", e);
+            }
+        }
+
+        @Override
+        public void stamp(long chatId, long nanos) {
+            stamps[(int) (chatId - FIRST_CHAT_ID)] = nanos;
+        }
+
+        @Override
+        public long takeStamp(long chatId) {
+            return stamps[(int) (chatId - FIRST_CHAT_ID)];
+        }
+
+        @Override
+        public void onReply(long chatId) {
+            int chat = (int) (chatId - FIRST_CHAT_ID);
+            // Ответ на команду с баллами или на последний вопрос - результат теста
+            if (steps[chat] > test.getQuestionCount()) {
+                completed.incrementAndGet();
+                finish();
+                return;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < abandon) {
+                abandoned.incrementAndGet();
+                finish();
+                return;
+            }
+            long think = thinkMillis > 0
+                    ? (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * thinkMillis * 1e6)
+                    : 0;
+            drivers.schedule(() -> next(chat), think, TimeUnit.NANOSECONDS);
+        }
+
+        private void finish() {
+            if (finished.incrementAndGet() == chats && recorder != null) {
+                synchronized (recorder) {
+                    try {
+                        recorder.close();
+                    } catch (IOException e) {
+                        throw new IllegalStateException("Не удалось закрыть файл записи", e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public boolean isDone() {
+            return finished.get() == chats;
+        }
+
+        @Override
+        public String summary() {
+            return String.format("Чатов: %d, завершили тест: %d, бросили: %d, не закончили: %d",
+                    chats, completed.get(), abandoned.get(), chats - finished.get());
+        }
+    }
+
+    /**
+     * Повтор записанного потока обновлений. Для каждого чата хранится очередь моментов передачи:
+     * задержка считается в предположении, что на каждое обновление бот отвечает одним сообщением.
+     */
+    private final class ReplayLoad implements Workload {
+        private final List<String> lines;
+        private final int copies;
+        private final double speed;
+        private final Map<Long, Queue<Long>> stamps = new ConcurrentHashMap<>();
+        private final ObjectMapper mapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        private volatile boolean done;
+
+        private ReplayLoad(String file) throws IOException {
+            try (BufferedReader reader = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+                List<String> all = new ArrayList<>();
+                for (String line; (line = reader.readLine()) != null; ) {
+                    if (!line.isBlank()) {
+                        all.add(line);
+                    }
+                }
+                this.lines = all;
+            }
+            this.copies = intOption("copies", 1);
+            this.speed = doubleOption("speed", 1);
+        }
+
+        @Override
+        public void start() {
+            Thread feeder = new Thread(this::feed, "load-replay");
+            feeder.setDaemon(true);
+            feeder.start();
+        }
+
+        private void feed() {
+            try {
+                long started = System.nanoTime();
+                long firstDate = -1;
+                for (String line : lines) {
+                    Update[] batch = new Update[copies];
+                    for (int copy = 0; copy < copies; copy++) {
+                        batch[copy] = mapper.readValue(line, Update.class);
+                    }
+                    Message message = message(batch[0]);
+                    if (message == null) {
+                        continue;
+                    }
+                    // Пауза по полю date исходного потока
+                    if (speed > 0 && message.getDate() != null) {
+                        if (firstDate < 0) {
+                            firstDate = message.getDate();
+                        }
+                        long due = started + (long) ((message.getDate() - firstDate) * 1e9 / speed);
+                        long wait = due - System.nanoTime();
+                        if (wait > 0) {
+                            TimeUnit.NANOSECONDS.sleep(wait);
+                        }
+                    }
+                    for (int copy = 0; copy < copies; copy++) {
+                        Update update = batch[copy];
+                        Chat chat = message(update).getChat();
+                        chat.setId(chat.getId() + copy * COPY_OFFSET);
+                        update.setUpdateId(nextUpdateId.incrementAndGet());
+                        send(update, chat.getId());
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Некорректное обновление в файле повтора", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done = true;
+            }
+        }
+
+        private Message message(Update update) {
+            if (update.hasMessage()) {
+                return update.getMessage();
+            }
+            if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() instanceof Message) {
+                return (Message) update.getCallbackQuery().getMessage();
+            }
+            return null;
+        }
+
+        @Override
+        public void stamp(long chatId, long nanos) {
+            stamps.computeIfAbsent(chatId, key -> new ConcurrentLinkedQueue<>()).add(nanos);
+        }
+
+        @Override
+        public long takeStamp(long chatId) {
+            Queue<Long> queue = stamps.get(chatId);
+            Long stamp = queue != null ? queue.poll() : null;
+            return stamp != null ? stamp : 0;
+        }
+
+        @Override
+        public void onReply(long chatId) {
+        }
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+
+        @Override
+        public String summary() {
+            return String.format("Повтор: %d обновлений в файле, копий: %d, чатов: %d",
+                    lines.size(), copies, stamps.size());
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Маршрутизация сообщений processMessage с заглушкой вместо Telegram API.
+ * Один вызов бенчмарка - полное прохождение теста Глазго одним чатом.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+public class RoutingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class BotState {
+        MedicalDiagnosisBot bot;
+        final AtomicLong nextChatId = new AtomicLong();
+
+        @Setup
+        public void setUp() {
+            bot = new MedicalDiagnosisBot(
+                    BotConfig.of(Map.of("BOT_TOKEN", "benchmark", "BOT_USERNAME", "benchmark")),
+                    message -> CompletableFuture.completedFuture(null));
+        }
+
+        @TearDown
+        public void tearDown() {
+            bot.onClosing();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ChatState {
+        long chatId;
+
+        @Setup
+        public void setUp(BotState botState) {
+            chatId = botState.nextChatId.incrementAndGet();
+        }
+    }
+
+    @Benchmark
+    public void glasgowScreening(BotState botState, ChatState chat, Blackhole blackhole) {
+        MedicalDiagnosisBot bot = botState.bot;
+        blackhole.consume(bot.processMessage(chat.chatId, "/glasgow"));
+        blackhole.consume(bot.processMessage(chat.chatId, "1"));
+        blackhole.consume(bot.processMessage(chat.chatId, "2"));
+        blackhole.consume(bot.processMessage(chat.chatId, "3"));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void glasgowScreeningParallel(BotState botState, ChatState chat, Blackhole blackhole) {
+        glasgowScreening(botState, chat, blackhole);
+    }
+
+    @Benchmark
+    public void help(BotState botState, ChatState chat, Blackhole blackhole) {
+        blackhole.consume(botState.bot.processMessage(chat.chatId, "/help"));
+    }
+}
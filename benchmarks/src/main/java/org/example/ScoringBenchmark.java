@@ -0,0 +1,61 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Интерпретация суммы баллов и доступ к вариантам ответа вопроса.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+public class ScoringBenchmark {
+    private DiagnosticTest test;
+    private DiagnosticQuestion question;
+    private String lastAnswer;
+
+    @Setup
+    public void setUp() throws Exception {
+        test = MedicalDiagnosisBot.loadTests("/tests_config.json").get(0);
+        question = test.getQuestion(test.getQuestionCount() - 1);
+        lastAnswer = question.getAnswerText(question.getAnswerCount() - 1);
+    }
+
+    /**
+     * Все возможные суммы баллов теста (для шкалы Глазго 3-15)
+     */
+    @Benchmark
+    public void evaluateDiagnosis(Blackhole blackhole) {
+        for (int score = test.getMinScore(); score <= test.getMaxScore(); score++) {
+            blackhole.consume(test.evaluateDiagnosis(score));
+        }
+    }
+
+    @Benchmark
+    public List<String> getPossibleAnswers() {
+        return question.getPossibleAnswers();
+    }
+
+    /**
+     * Поиск балла по тексту последнего (самого дальнего) варианта ответа
+     */
+    @Benchmark
+    public Integer getValueForAnswer() {
+        return question.getValueForAnswer(lastAnswer);
+    }
+}
@@ -0,0 +1,42 @@
+package org.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полный жизненный цикл DiagnosisSession: создание, все вопросы, ответы и диагноз.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-bench.xml")
+public class SessionBenchmark {
+    private DiagnosticTest test;
+
+    @Setup
+    public void setUp() throws Exception {
+        test = MedicalDiagnosisBot.loadTests("/tests_config.json").get(0);
+    }
+
+    @Benchmark
+    public String fullSession() {
+        DiagnosisSession session = new DiagnosisSession(test);
+        DiagnosticQuestion question;
+        while ((question = session.getNextQuestion()) != null) {
+            session.recordAnswer(question.getAnswerCount() / 2);
+        }
+        return session.getDiagnosisResult();
+    }
+}
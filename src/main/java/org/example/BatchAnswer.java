@@ -0,0 +1,154 @@
+package org.example;
+
+/**
+ * Разбор ответа на все вопросы теста одним сообщением.
+ * Поддерживаются две формы, в обеих указываются баллы параметров (а не номера ответов):
+ * баллы в порядке вопросов через пробел или запятую ("4 5 6") и баллы с обозначениями
+ * параметров в любом порядке ("E4V5M6", "e4 v5 m6"), если обозначения заданы в каталоге.
+ * Каждый балл должен соответствовать ровно одному варианту ответа своего вопроса,
+ * и баллы должны быть указаны для всех параметров теста.
+ * Разбор не использует исключений: некорректный ввод дает null.
+ */
+public final class BatchAnswer {
+    // Наибольшее число цифр в балле (баллы в каталогах - небольшие числа)
+    private static final int MAX_DIGITS = 4;
+
+    private BatchAnswer() {
+    }
+
+    /**
+     * Проверить, похоже ли сообщение на ответ сразу на несколько вопросов
+     * (содержит больше одного числа), а не на номер одного ответа
+     * @param text текст сообщения
+     * @return true, если в сообщении больше одного числа
+     */
+    public static boolean looksLikeBatch(String text) {
+        int numbers = 0;
+        boolean inNumber = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean digit = isDigit(text.charAt(i));
+            if (digit && !inNumber && ++numbers > 1) {
+                return true;
+            }
+            inNumber = digit;
+        }
+        return false;
+    }
+
+    /**
+     * Разбирает баллы всех параметров теста
+     * @param test тест
+     * @param text текст сообщения
+     * @return индексы выбранных ответов по вопросам или null, если ввод некорректен
+     */
+    public static byte[] parse(DiagnosticTest test, String text) {
+        int questionCount = test.getQuestionCount();
+        byte[] answers = new byte[questionCount];
+        boolean[] assigned = new boolean[questionCount];
+        int next = 0;
+        boolean tagged = false;
+        boolean positional = false;
+
+        int i = 0;
+        int length = text.length();
+        while (i < length) {
+            char c = text.charAt(i);
+            if (c == ' ' || c == ',' || c == ';' || c == '\t' || c == '\n') {
+                i++;
+                continue;
+            }
+
+            int question;
+            if (isLatin(c)) {
+                int start = i;
+                while (i < length && isLatin(text.charAt(i))) {
+                    i++;
+                }
+                question = findByShortcut(test, text, start, i);
+                if (question < 0 || assigned[question]) {
+                    return null;
+                }
+                tagged = true;
+            } else {
+                question = next++;
+                if (question >= questionCount) {
+                    return null;
+                }
+                positional = true;
+            }
+            // Смешивать формы нельзя: позиционный балл после обозначений неоднозначен
+            if (tagged && positional) {
+                return null;
+            }
+
+            int start = i;
+            int value = 0;
+            while (i < length && isDigit(text.charAt(i)) && i - start < MAX_DIGITS) {
+                value = value * 10 + (text.charAt(i) - '0');
+                i++;
+            }
+            if (i == start || (i < length && isDigit(text.charAt(i)))) {
+                return null;
+            }
+            // После позиционного балла обязателен разделитель; обозначения могут идти подряд ("E4V5M6")
+            if (positional && i < length && isLatin(text.charAt(i))) {
+                return null;
+            }
+
+            int answer = test.getQuestion(question).findAnswerByValue(value);
+            if (answer < 0) {
+                return null;
+            }
+            answers[question] = (byte) answer;
+            assigned[question] = true;
+        }
+
+        for (boolean done : assigned) {
+            if (!done) {
+                return null;
+            }
+        }
+        return answers;
+    }
+
+    /**
+     * Пример ввода для подсказки: наибольшие баллы параметров, с обозначениями, если они заданы у всех
+     * @param test тест
+     * @return пример, например "E4V5M6" или "4 5 6"
+     */
+    public static String example(DiagnosticTest test) {
+        boolean tagged = test.getQuestionCount() > 0;
+        for (DiagnosticQuestion question : test.getQuestions()) {
+            tagged &= question.getShortcut() != null;
+        }
+        StringBuilder example = new StringBuilder();
+        for (DiagnosticQuestion question : test.getQuestions()) {
+            if (tagged) {
+                example.append(question.getShortcut());
+            } else if (example.length() > 0) {
+                example.append(' ');
+            }
+            example.append(question.getMaxValue());
+        }
+        return example.toString();
+    }
+
+    private static int findByShortcut(DiagnosticTest test, String text, int start, int end) {
+        for (int q = 0; q < test.getQuestionCount(); q++) {
+            String shortcut = test.getQuestion(q).getShortcut();
+            if (shortcut != null && shortcut.length() == end - start
+                    && shortcut.regionMatches(true, 0, text, start, end - start)) {
+                return q;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLatin(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z');
+    }
+}
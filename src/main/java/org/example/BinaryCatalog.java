@@ -0,0 +1,440 @@
+package org.example;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Бинарный каталог тестов, скомпилированный из JSON при сборке ({@link CatalogCompiler}).
+ * Файл отображается в память, а тесты декодируются лениво при первом обращении,
+ * поэтому время запуска и занимаемая куча почти не зависят от размера каталога:
+ * поиск по команде и отпечатку выполняется по хеш-таблицам внутри файла.
+ *
+ * Формат (big-endian):
+ * заголовок - int "TCAT", int версия формата, int число тестов, смещения справочника тестов,
+ * таблицы команд и таблицы отпечатков, ссылки на тексты /start и /help;
+ * строки - int длина, байты UTF-8 (ссылка на строку - ее смещение, -1 - null; одинаковые строки хранятся один раз);
+ * тело теста - int число вопросов, для каждого вопроса ссылки на текст, параметр, его обозначение и готовый текст сообщения,
+ * int число ответов и пары (ссылка на текст, балл); затем int число интервалов и тройки (нижняя граница,
+ * верхняя граница, ссылка на диагноз) в порядке возрастания;
+ * справочник - для каждого теста ссылки на название, команду и описание, отпечаток и смещение тела;
+ * хеш-таблицы - int размер (степень двойки), затем номера тестов + 1 (0 - пустая ячейка), линейное пробирование.
+ */
+public final class BinaryCatalog {
+    // Имя ресурса, в который сборка записывает скомпилированный каталог
+    public static final String RESOURCE = "/tests_catalog.bin";
+
+    private static final int MAGIC = 0x54434154; // "TCAT"
+    // 3: тексты /start и /help хранятся без строки /history, ее добавляет бот с включенной историей
+    private static final int FORMAT_VERSION = 3;
+
+    private static final int HEADER_SIZE = 36;
+    private static final int DIRECTORY_ENTRY_SIZE = 20;
+    private static final int NULL_REF = -1;
+
+    private final ByteBuffer buffer;
+    private final int testCount;
+    private final int directoryOffset;
+    private final int commandTableOffset;
+    private final int fingerprintTableOffset;
+    private final String startText;
+    private final String helpText;
+
+    // Уже декодированные тесты: один объект на тест, так как сессии сравнивают тесты по ссылке
+    private final AtomicReferenceArray<DiagnosticTest> loaded;
+
+    private BinaryCatalog(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Файл не является бинарным каталогом тестов");
+        }
+        if (buffer.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Неподдерживаемая версия бинарного каталога: " + buffer.getInt(4));
+        }
+        this.testCount = buffer.getInt(8);
+        this.directoryOffset = buffer.getInt(12);
+        this.commandTableOffset = buffer.getInt(16);
+        this.fingerprintTableOffset = buffer.getInt(20);
+        if (testCount < 0 || (long) directoryOffset + (long) testCount * DIRECTORY_ENTRY_SIZE > buffer.limit()
+                || commandTableOffset >= buffer.limit() || fingerprintTableOffset >= buffer.limit()) {
+            throw new IOException("Поврежден заголовок бинарного каталога");
+        }
+        this.startText = string(buffer.getInt(24));
+        this.helpText = string(buffer.getInt(28));
+        this.loaded = new AtomicReferenceArray<>(testCount);
+    }
+
+    /**
+     * Отображает файл каталога в память
+     * @param file файл, записанный {@link #write}
+     * @return каталог
+     * @throws IOException если файл не читается или имеет неверный формат
+     */
+    public static BinaryCatalog map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Отображение остается действительным после закрытия канала
+            return new BinaryCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Загружает каталог из classpath. Из каталога классов файл отображается в память,
+     * из jar-архива - читается целиком (отображение содержимого архива невозможно).
+     * @param resource путь к ресурсу
+     * @return каталог или null, если ресурса нет (сборка без шага компиляции каталога)
+     * @throws IOException если ресурс не читается или имеет неверный формат
+     */
+    public static BinaryCatalog fromResource(String resource) throws IOException {
+        URL url = BinaryCatalog.class.getResource(resource);
+        if (url == null) {
+            return null;
+        }
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return map(Paths.get(url.toURI()));
+            } catch (URISyntaxException e) {
+                throw new IOException("Некорректный путь к каталогу: " + url, e);
+            }
+        }
+        try (InputStream is = url.openStream()) {
+            return new BinaryCatalog(ByteBuffer.wrap(is.readAllBytes()));
+        }
+    }
+
+    /**
+     * @return количество тестов
+     */
+    public int getTestCount() {
+        return testCount;
+    }
+
+    /**
+     * Получить тест, декодировав его при первом обращении
+     * @param index номер теста
+     * @return тест
+     */
+    public DiagnosticTest getTest(int index) {
+        DiagnosticTest test = loaded.get(index);
+        if (test == null) {
+            DiagnosticTest decoded = decode(index);
+            // При одновременном декодировании все потоки получают один и тот же объект
+            test = loaded.compareAndExchange(index, null, decoded);
+            if (test == null) {
+                test = decoded;
+            }
+        }
+        return test;
+    }
+
+    /**
+     * @return тесты в порядке каталога; элементы декодируются при обращении
+     */
+    public List<DiagnosticTest> asList() {
+        return new AbstractList<>() {
+            @Override
+            public DiagnosticTest get(int index) {
+                return getTest(index);
+            }
+
+            @Override
+            public int size() {
+                return testCount;
+            }
+        };
+    }
+
+    /**
+     * Найти тест по команде
+     * @param command текст команды
+     * @return тест или null
+     */
+    public DiagnosticTest findByCommand(String command) {
+        int size = buffer.getInt(commandTableOffset);
+        int mask = size - 1;
+        for (int slot = mix(command.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int entry = buffer.getInt(commandTableOffset + 4 + slot * 4);
+            if (entry == 0) {
+                return null;
+            }
+            if (commandEquals(buffer.getInt(directoryEntry(entry - 1) + 4), command)) {
+                return getTest(entry - 1);
+            }
+        }
+    }
+
+    /**
+     * Найти тест по отпечатку структуры
+     * @param fingerprint отпечаток
+     * @return тест или null
+     */
+    public DiagnosticTest findByFingerprint(int fingerprint) {
+        int size = buffer.getInt(fingerprintTableOffset);
+        int mask = size - 1;
+        for (int slot = mix(fingerprint) & mask; ; slot = (slot + 1) & mask) {
+            int entry = buffer.getInt(fingerprintTableOffset + 4 + slot * 4);
+            if (entry == 0) {
+                return null;
+            }
+            if (buffer.getInt(directoryEntry(entry - 1) + 12) == fingerprint) {
+                return getTest(entry - 1);
+            }
+        }
+    }
+
+    /**
+     * @return текст приветствия /start
+     */
+    public String getStartText() {
+        return startText;
+    }
+
+    /**
+     * @return текст справки /help
+     */
+    public String getHelpText() {
+        return helpText;
+    }
+
+    private int directoryEntry(int index) {
+        return directoryOffset + index * DIRECTORY_ENTRY_SIZE;
+    }
+
+    private DiagnosticTest decode(int index) {
+        int entry = directoryEntry(index);
+        int position = buffer.getInt(entry + 16);
+
+        int questionCount = buffer.getInt(position);
+        position += 4;
+        List<DiagnosticQuestion> questions = new ArrayList<>(questionCount);
+        String[] prompts = new String[questionCount];
+        int minScore = 0;
+        int maxScore = 0;
+        for (int q = 0; q < questionCount; q++) {
+            String text = string(buffer.getInt(position));
+            String parameter = string(buffer.getInt(position + 4));
+            String shortcut = string(buffer.getInt(position + 8));
+            prompts[q] = string(buffer.getInt(position + 12));
+            int answerCount = buffer.getInt(position + 16);
+            position += 20;
+            String[] answerTexts = new String[answerCount];
+            int[] answerScores = new int[answerCount];
+            for (int i = 0; i < answerCount; i++) {
+                answerTexts[i] = string(buffer.getInt(position));
+                answerScores[i] = buffer.getInt(position + 4);
+                position += 8;
+            }
+            DiagnosticQuestion question = new DiagnosticQuestion(text, parameter, shortcut, answerTexts, answerScores);
+            minScore += question.getMinValue();
+            maxScore += question.getMaxValue();
+            questions.add(question);
+        }
+
+        int intervalCount = buffer.getInt(position);
+        position += 4;
+        int[] lower = new int[intervalCount];
+        int[] upper = new int[intervalCount];
+        String[] diagnoses = new String[intervalCount];
+        for (int k = 0; k < intervalCount; k++) {
+            lower[k] = buffer.getInt(position);
+            upper[k] = buffer.getInt(position + 4);
+            diagnoses[k] = string(buffer.getInt(position + 8));
+            position += 12;
+        }
+
+        return new DiagnosticTest(
+                string(buffer.getInt(entry)),
+                string(buffer.getInt(entry + 4)),
+                string(buffer.getInt(entry + 8)),
+                questions,
+                ScoreIntervalIndex.fromIntervals(lower, upper, diagnoses, minScore, maxScore),
+                prompts,
+                buffer.getInt(entry + 12));
+    }
+
+    private String string(int ref) {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        int length = buffer.getInt(ref);
+        byte[] bytes = new byte[length];
+        // Чтение через копию буфера не меняет позицию общего буфера, поэтому безопасно из разных потоков
+        buffer.duplicate().position(ref + 4).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Сравнивает строку каталога с командой без декодирования: команды тестов состоят
+     * только из ASCII-символов (проверяется при компиляции), поэтому байт равен символу
+     */
+    private boolean commandEquals(int ref, String command) {
+        if (ref == NULL_REF || buffer.getInt(ref) != command.length()) {
+            return false;
+        }
+        for (int i = 0; i < command.length(); i++) {
+            if (buffer.get(ref + 4 + i) != command.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Компилирует проверенный каталог в бинарный формат
+     * @param catalog каталог, загруженный из JSON
+     * @param file файл результата (записывается атомарно)
+     * @throws IOException при ошибке записи
+     */
+    public static void write(TestCatalog catalog, Path file) throws IOException {
+        List<DiagnosticTest> tests = catalog.getTests();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(new byte[HEADER_SIZE]);
+
+        // Таблица строк
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        addString(strings, out, catalog.getStartText());
+        addString(strings, out, catalog.getHelpText());
+        for (DiagnosticTest test : tests) {
+            addString(strings, out, test.getTestName());
+            addString(strings, out, test.getCommand());
+            addString(strings, out, test.getDescription());
+            for (int q = 0; q < test.getQuestionCount(); q++) {
+                DiagnosticQuestion question = test.getQuestion(q);
+                addString(strings, out, question.getQuestionText());
+                addString(strings, out, question.getParameterName());
+                addString(strings, out, question.getShortcut());
+                addString(strings, out, test.getQuestionPrompt(q));
+                for (int i = 0; i < question.getAnswerCount(); i++) {
+                    addString(strings, out, question.getAnswerText(i));
+                }
+            }
+            ScoreIntervalIndex index = test.getDiagnosisIndex();
+            for (int k = 0; k < index.getIntervalCount(); k++) {
+                addString(strings, out, index.getDiagnosis(k));
+            }
+        }
+
+        // Тела тестов
+        int[] bodies = new int[tests.size()];
+        for (int t = 0; t < tests.size(); t++) {
+            DiagnosticTest test = tests.get(t);
+            bodies[t] = out.size();
+            out.writeInt(test.getQuestionCount());
+            for (int q = 0; q < test.getQuestionCount(); q++) {
+                DiagnosticQuestion question = test.getQuestion(q);
+                out.writeInt(ref(strings, question.getQuestionText()));
+                out.writeInt(ref(strings, question.getParameterName()));
+                out.writeInt(ref(strings, question.getShortcut()));
+                out.writeInt(ref(strings, test.getQuestionPrompt(q)));
+                out.writeInt(question.getAnswerCount());
+                for (int i = 0; i < question.getAnswerCount(); i++) {
+                    out.writeInt(ref(strings, question.getAnswerText(i)));
+                    out.writeInt(question.getAnswerValue(i));
+                }
+            }
+            ScoreIntervalIndex index = test.getDiagnosisIndex();
+            out.writeInt(index.getIntervalCount());
+            for (int k = 0; k < index.getIntervalCount(); k++) {
+                out.writeInt(index.getLowerBound(k));
+                out.writeInt(index.getUpperBound(k));
+                out.writeInt(ref(strings, index.getDiagnosis(k)));
+            }
+        }
+
+        // Справочник тестов
+        int directory = out.size();
+        for (int t = 0; t < tests.size(); t++) {
+            DiagnosticTest test = tests.get(t);
+            out.writeInt(ref(strings, test.getTestName()));
+            out.writeInt(ref(strings, test.getCommand()));
+            out.writeInt(ref(strings, test.getDescription()));
+            out.writeInt(test.getFingerprint());
+            out.writeInt(bodies[t]);
+        }
+
+        // Хеш-таблицы поиска
+        int tableSize = Math.max(2, Integer.highestOneBit(Math.max(1, tests.size()) * 2 - 1) << 1);
+        int[] commandTable = new int[tableSize];
+        int[] fingerprintTable = new int[tableSize];
+        for (int t = 0; t < tests.size(); t++) {
+            DiagnosticTest test = tests.get(t);
+            if (test.getCommand() != null) {
+                insert(commandTable, mix(test.getCommand().hashCode()), t);
+            }
+            insert(fingerprintTable, mix(test.getFingerprint()), t);
+        }
+        int commandTableOffset = writeTable(out, commandTable);
+        int fingerprintTableOffset = writeTable(out, fingerprintTable);
+        out.flush();
+
+        ByteBuffer header = ByteBuffer.wrap(bytes.toByteArray());
+        header.putInt(0, MAGIC)
+                .putInt(4, FORMAT_VERSION)
+                .putInt(8, tests.size())
+                .putInt(12, directory)
+                .putInt(16, commandTableOffset)
+                .putInt(20, fingerprintTableOffset)
+                .putInt(24, ref(strings, catalog.getStartText()))
+                .putInt(28, ref(strings, catalog.getHelpText()));
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, header.array());
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void addString(Map<String, Integer> strings, DataOutputStream out, String value)
+            throws IOException {
+        if (value == null || strings.containsKey(value)) {
+            return;
+        }
+        byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+        strings.put(value, out.size());
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static int ref(Map<String, Integer> strings, String value) {
+        return value == null ? NULL_REF : strings.get(value);
+    }
+
+    private static void insert(int[] table, int hash, int index) {
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = index + 1;
+    }
+
+    private static int writeTable(DataOutputStream out, int[] table) throws IOException {
+        int offset = out.size();
+        out.writeInt(table.length);
+        for (int entry : table) {
+            out.writeInt(entry);
+        }
+        return offset;
+    }
+}
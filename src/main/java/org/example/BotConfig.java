@@ -0,0 +1,119 @@
+package org.example;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Конфигурация бота из файла config.env.
+ * Предоставляет типизированный доступ к параметрам со значениями по умолчанию.
+ */
+public class BotConfig {
+    // Параметры, которые в конфигурации отдельного бота задаются только с его префиксом
+    private static final Set<String> PER_BOT_KEYS = Set.of("BOT_TOKEN", "BOT_USERNAME");
+
+    // Каталоги, которые у каждого бота свои: общий каталог дополняется идентификатором бота
+    private static final Set<String> PER_BOT_DIRECTORIES = Set.of("JOURNAL_DIR", "RESULTS_DIR", "HISTORY_DIR");
+
+    private final Function<String, String> source;
+
+    private BotConfig(Function<String, String> source) {
+        this.source = source;
+    }
+
+    /**
+     * Загружает конфигурацию из config.env (файл может отсутствовать)
+     * @return объект конфигурации
+     */
+    public static BotConfig load() {
+        Dotenv dotenv = Dotenv.configure()
+                .filename("config.env")
+                .ignoreIfMissing()
+                .load();
+        return new BotConfig(dotenv::get);
+    }
+
+    /**
+     * Создает конфигурацию из набора значений (для бенчмарков и локальных прогонов)
+     * @param values параметры конфигурации
+     * @return объект конфигурации
+     */
+    public static BotConfig of(Map<String, String> values) {
+        return new BotConfig(Map.copyOf(values)::get);
+    }
+
+    /**
+     * Конфигурация одного из ботов процесса (BOTS=clinic1,clinic2): параметр KEY берется
+     * из CLINIC1_KEY, а если он не задан - общий. Учетные данные бота общими не бывают,
+     * а каталоги журнала и результатов без собственного значения получают подкаталог бота,
+     * чтобы боты не писали в одни файлы.
+     * @param botId идентификатор бота из списка BOTS
+     * @return конфигурация бота
+     */
+    public BotConfig forBot(String botId) {
+        String prefix = botId.toUpperCase(Locale.ROOT) + "_";
+        return new BotConfig(key -> {
+            String value = source.apply(prefix + key);
+            if (value != null || PER_BOT_KEYS.contains(key)) {
+                return value;
+            }
+            value = source.apply(key);
+            if (value != null && !value.isBlank() && PER_BOT_DIRECTORIES.contains(key)) {
+                return Paths.get(value.trim(), botId).toString();
+            }
+            return value;
+        });
+    }
+
+    /**
+     * @param key имя параметра
+     * @return значение параметра или null, если он не задан
+     */
+    public String get(String key) {
+        return source.apply(key);
+    }
+
+    /**
+     * @param key имя параметра
+     * @param defaultValue значение по умолчанию
+     * @return значение параметра или значение по умолчанию
+     */
+    public String get(String key, String defaultValue) {
+        String value = source.apply(key);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    /**
+     * Получить целочисленный параметр
+     * @param key имя параметра
+     * @param defaultValue значение по умолчанию
+     * @return значение параметра
+     * @throws IllegalArgumentException если значение не является числом
+     */
+    public int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    /**
+     * Получить параметр типа long
+     * @param key имя параметра
+     * @param defaultValue значение по умолчанию
+     * @return значение параметра
+     * @throws IllegalArgumentException если значение не является числом
+     */
+    public long getLong(String key, long defaultValue) {
+        String value = get(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Некорректное числовое значение " + key + "=" + value, e);
+        }
+    }
+}
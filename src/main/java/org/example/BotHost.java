@@ -0,0 +1,94 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Общие ресурсы ботов одного процесса: каталог тестов (с перезагрузкой из CATALOG_DIR),
+ * пул обработки обновлений и реестр метрик. Каталог неизменяем и заменяется целиком,
+ * поэтому все боты читают одну его копию без синхронизации. Сессии, журналы, очереди
+ * отправки и учетные данные у каждого бота свои; в пуле у каждого бота свой набор
+ * почтовых ящиков, а очередь пула справедлива между ботами.
+ */
+public class BotHost implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(BotHost.class);
+
+    private final BotMetrics metrics = new BotMetrics();
+    private final UpdateDispatcher dispatcher;
+
+    // Текущая версия каталога тестов; заменяется целиком при перезагрузке
+    private volatile TestCatalog catalog;
+
+    // Наблюдение за внешним каталогом тестов (null - каталог загружен из classpath)
+    private final CatalogWatcher catalogWatcher;
+
+    /**
+     * Загружает каталог тестов и создает пул обработки по параметрам из config.env
+     * @param config общая конфигурация процесса
+     */
+    public BotHost(BotConfig config) {
+        // CATALOG_DIR - внешний каталог файлов тестов, который перечитывается при изменениях
+        String catalogDir = config.get("CATALOG_DIR");
+        try {
+            if (catalogDir != null) {
+                this.catalog = TestCatalog.fromDirectory(Paths.get(catalogDir), 1);
+                this.catalogWatcher = new CatalogWatcher(Paths.get(catalogDir), catalog,
+                        config.getLong("CATALOG_RELOAD_DEBOUNCE_MS", 500), this::swapCatalog);
+            } else {
+                this.catalog = TestCatalog.fromClasspath();
+                this.catalogWatcher = null;
+            }
+        } catch (IOException e) {
+            logger.error("Ошибка загрузки тестов", e);
+            throw new RuntimeException("Ошибка загрузки тестов", e);
+        }
+        this.dispatcher = UpdateDispatcher.fromConfig(config);
+
+        metrics.gauge("bot_catalog_version", "Версия загруженного каталога тестов", () -> catalog.getVersion());
+        metrics.gauge("bot_dispatch_pending", "Обновления, ожидающие обработки", dispatcher::getPendingCount);
+
+        if (catalogWatcher != null) {
+            catalogWatcher.start();
+        }
+    }
+
+    /**
+     * Атомарно заменяет каталог тестов новой версией.
+     * @param newCatalog загруженный и проверенный каталог
+     */
+    private void swapCatalog(TestCatalog newCatalog) {
+        catalog = newCatalog;
+    }
+
+    /**
+     * @return текущая версия каталога тестов
+     */
+    public TestCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * @return общий реестр метрик (боты регистрируют метрики с меткой bot)
+     */
+    public BotMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return общий пул обработки обновлений
+     */
+    public UpdateDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    @Override
+    public void close() {
+        if (catalogWatcher != null) {
+            catalogWatcher.close();
+        }
+        dispatcher.close();
+    }
+}
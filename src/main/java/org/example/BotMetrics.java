@@ -0,0 +1,193 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Реестр метрик бота: счетчики, датчики и гистограммы задержек.
+ * Метрики выгружаются в текстовом формате Prometheus.
+ * Запись в счетчики и гистограммы не использует блокировок; горячие пути
+ * получают объекты метрик один раз и затем только обновляют их.
+ */
+public class BotMetrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // Семейства метрик по имени, в порядке регистрации выгрузка не гарантируется
+    private final ConcurrentMap<String, Family> families;
+
+    // Метки, добавляемые ко всем метрикам этого представления реестра (например, bot="clinic1")
+    private final String[] commonLabels;
+
+    public BotMetrics() {
+        this(new ConcurrentHashMap<>(), new String[0]);
+    }
+
+    private BotMetrics(ConcurrentMap<String, Family> families, String[] commonLabels) {
+        this.families = families;
+        this.commonLabels = commonLabels;
+    }
+
+    /**
+     * Представление того же реестра, добавляющее метки ко всем регистрируемым метрикам.
+     * Используется, когда несколько ботов одного процесса выгружают метрики через общий реестр.
+     * @param labels пары имя/значение меток
+     * @return представление реестра
+     */
+    public BotMetrics withLabels(String... labels) {
+        return new BotMetrics(families, concat(commonLabels, labels));
+    }
+
+    /**
+     * Получить (или создать) счетчик
+     * @param name имя метрики
+     * @param help описание метрики
+     * @param labels пары имя/значение меток
+     * @return счетчик
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, "counter").series
+                .computeIfAbsent(labelString(concat(commonLabels, labels)), key -> new LongAdder());
+    }
+
+    /**
+     * Зарегистрировать счетчик, значение которого хранится вне реестра
+     * @param name имя метрики
+     * @param help описание метрики
+     * @param supplier источник значения (не убывает)
+     * @param labels пары имя/значение меток
+     */
+    public void counter(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, help, "counter").series.put(labelString(concat(commonLabels, labels)), supplier);
+    }
+
+    /**
+     * Получить (или создать) гистограмму задержек
+     * @param name имя метрики (значения выгружаются в секундах)
+     * @param help описание метрики
+     * @param labels пары имя/значение меток
+     * @return гистограмма
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, "summary").series
+                .computeIfAbsent(labelString(concat(commonLabels, labels)), key -> new LatencyHistogram());
+    }
+
+    /**
+     * Зарегистрировать датчик, значение которого вычисляется при выгрузке
+     * @param name имя метрики
+     * @param help описание метрики
+     * @param supplier источник значения
+     * @param labels пары имя/значение меток
+     */
+    public void gauge(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, help, "gauge").series.put(labelString(concat(commonLabels, labels)), supplier);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Метрика " + name + " уже зарегистрирована с типом " + family.type);
+        }
+        return family;
+    }
+
+    /**
+     * Выгружает все метрики в текстовом формате Prometheus
+     * @return текст выгрузки
+     */
+    public String toPrometheusText() {
+        StringBuilder out = new StringBuilder(4096);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> series : family.series.entrySet()) {
+                writeSeries(out, name, series.getKey(), series.getValue());
+            }
+        }
+        return out.toString();
+    }
+
+    private static void writeSeries(StringBuilder out, String name, String labels, Object metric) {
+        if (metric instanceof LongAdder) {
+            out.append(name).append(braces(labels)).append(' ').append(((LongAdder) metric).sum()).append('\n');
+        } else if (metric instanceof LongSupplier) {
+            out.append(name).append(braces(labels)).append(' ')
+                    .append(((LongSupplier) metric).getAsLong()).append('\n');
+        } else if (metric instanceof LatencyHistogram) {
+            LatencyHistogram histogram = (LatencyHistogram) metric;
+            String prefix = labels.isEmpty() ? "" : labels + ",";
+            for (double quantile : QUANTILES) {
+                out.append(name).append('{').append(prefix).append("quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(histogram.getQuantile(quantile))).append('\n');
+            }
+            out.append(name).append("_sum").append(braces(labels)).append(' ')
+                    .append(seconds(histogram.getSum())).append('\n');
+            out.append(name).append("_count").append(braces(labels)).append(' ')
+                    .append(histogram.getCount()).append('\n');
+        }
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static String[] concat(String[] first, String[] second) {
+        if (first.length == 0) {
+            return second;
+        }
+        String[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static String labelString(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Метки задаются парами имя/значение");
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"");
+            String value = labels[i + 1] == null ? "" : labels[i + 1];
+            for (int c = 0; c < value.length(); c++) {
+                char ch = value.charAt(c);
+                if (ch == '\\' || ch == '"') {
+                    result.append('\\').append(ch);
+                } else if (ch == '\n') {
+                    result.append("\\n");
+                } else {
+                    result.append(ch);
+                }
+            }
+            result.append('"');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Семейство метрик с одним именем и разными наборами меток
+     */
+    private static final class Family {
+        private final String help;
+        private final String type;
+        private final ConcurrentMap<String, Object> series = new ConcurrentHashMap<>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+}
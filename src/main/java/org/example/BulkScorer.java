@@ -0,0 +1,504 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пакетный подсчет результатов тестов без бота, по тем же правилам: балл каждого параметра
+ * сопоставляется варианту ответа ({@link DiagnosticQuestion#findAnswerByValue}), сумма и диагноз
+ * вычисляются {@link DiagnosisSession}. Предназначен для выгрузок из медицинских записей.
+ *
+ * Вход читается потоково блоками по CHUNK_LINES строк; блоки подсчитываются параллельно
+ * на threads потоках, а результаты пишутся в исходном порядке по мере готовности. В обработке
+ * одновременно не более 2 * threads блоков, поэтому память не зависит от размера входа.
+ *
+ * Форматы (по расширению файла или параметру format):
+ * CSV - первая строка заголовок; тест задается колонкой test (команда или название), баллы -
+ * колонками с обозначениями (E, V, M) или названиями параметров либо колонкой scores в формате
+ * сообщения бота ("4 5 6", "E4V5M6"). Поля в кавычках поддерживаются, переводы строк внутри
+ * полей - нет. К каждой строке добавляются колонки total, diagnosis, error.
+ * JSONL - по объекту в строке с теми же полями; в объект добавляются поля total и diagnosis
+ * или error.
+ *
+ * Использование: BulkScorer &lt;вход&gt; &lt;выход&gt; [test=/glasgow] [threads=N] [format=csv|jsonl]
+ * [catalog=каталог] [summary=файл]; "-" вместо файла - стандартный ввод или вывод.
+ * Сводка по диагнозам выводится в stderr и, если указан summary, в CSV-файл.
+ */
+public final class BulkScorer {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // Число строк в блоке, передаваемом потоку подсчета
+    private static final int CHUNK_LINES = 4096;
+
+    private final TestCatalog catalog;
+    private final boolean jsonl;
+
+    // Тест для всех строк (null - тест указывается в каждой строке)
+    private final DiagnosticTest fixedTest;
+
+    // Тест строк, в которых он не указан: единственный тест каталога (null - тест обязателен)
+    private final DiagnosticTest defaultTest;
+
+    // Тесты по названию (по команде поиск выполняется в каталоге)
+    private final Map<String, DiagnosticTest> testsByName = new HashMap<>();
+
+    // Заголовок CSV и индексы колонок
+    private String[] header;
+    private int testColumn = -1;
+    private int scoresColumn = -1;
+
+    // Колонки CSV с баллами по параметрам теста (-1 - колонки нет)
+    private final Map<DiagnosticTest, int[]> parameterColumns = new ConcurrentHashMap<>();
+
+    private BulkScorer(TestCatalog catalog, boolean jsonl, DiagnosticTest fixedTest) {
+        this.catalog = catalog;
+        this.jsonl = jsonl;
+        this.fixedTest = fixedTest;
+        this.defaultTest = catalog.getTests().size() == 1 ? catalog.getTests().get(0) : null;
+        for (DiagnosticTest test : catalog.getTests()) {
+            testsByName.putIfAbsent(test.getTestName().toLowerCase(Locale.ROOT), test);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Использование: BulkScorer <вход> <выход> [test=/glasgow] "
+                    + "[threads=N] [format=csv|jsonl] [catalog=каталог] [summary=файл]");
+        }
+        String input = args[0];
+        String output = args[1];
+        Map<String, String> options = new HashMap<>();
+        for (int i = 2; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("Параметр должен иметь вид имя=значение: " + args[i]);
+            }
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+
+        String catalogDir = options.get("catalog");
+        TestCatalog catalog = catalogDir != null
+                ? TestCatalog.fromDirectory(Paths.get(catalogDir), 0)
+                : TestCatalog.fromClasspath();
+        DiagnosticTest fixedTest = null;
+        String testOption = options.get("test");
+        if (testOption != null) {
+            fixedTest = catalog.findByCommand(testOption);
+            if (fixedTest == null) {
+                throw new IllegalArgumentException("Тест не найден: " + testOption);
+            }
+        }
+        String format = options.getOrDefault("format", input.endsWith(".jsonl") ? "jsonl" : "csv");
+        if (!format.equals("csv") && !format.equals("jsonl")) {
+            throw new IllegalArgumentException("Неизвестный формат: " + format);
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads",
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+
+        BulkScorer scorer = new BulkScorer(catalog, format.equals("jsonl"), fixedTest);
+        long started = System.nanoTime();
+        Summary summary;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                input.equals("-") ? System.in : Files.newInputStream(Paths.get(input)), StandardCharsets.UTF_8),
+                1 << 16);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(
+                     output.equals("-") ? System.out : Files.newOutputStream(Paths.get(output)),
+                     StandardCharsets.UTF_8), 1 << 16)) {
+            summary = scorer.run(reader, writer, threads);
+        }
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        String report = summary.report(seconds);
+        System.err.print(report);
+        String summaryFile = options.get("summary");
+        if (summaryFile != null) {
+            Files.write(Paths.get(summaryFile), summary.csv().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Подсчитывает результаты всех строк входа
+     * @param reader вход
+     * @param writer выход
+     * @param threads число потоков подсчета
+     * @return сводка по диагнозам
+     */
+    Summary run(BufferedReader reader, Writer writer, int threads) throws IOException, InterruptedException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Число потоков должно быть положительным");
+        }
+        if (!jsonl) {
+            String headerLine = reader.readLine();
+            if (headerLine == null) {
+                return new Summary();
+            }
+            readHeader(headerLine);
+            writer.write(headerLine);
+            writer.write(",total,diagnosis,error\n");
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "bulk-scorer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Summary summary = new Summary();
+        ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>();
+        try {
+            List<String> lines = new ArrayList<>(CHUNK_LINES);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() == CHUNK_LINES) {
+                    submit(pool, inFlight, lines, writer, summary, threads);
+                    lines = new ArrayList<>(CHUNK_LINES);
+                }
+            }
+            if (!lines.isEmpty()) {
+                submit(pool, inFlight, lines, writer, summary, threads);
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll(), writer, summary);
+            }
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        return summary;
+    }
+
+    private void submit(ExecutorService pool, ArrayDeque<Future<Chunk>> inFlight, List<String> lines,
+                        Writer writer, Summary summary, int threads) throws IOException, InterruptedException {
+        // Чтение не опережает запись больше чем на 2 * threads блоков
+        if (inFlight.size() >= 2 * threads) {
+            write(inFlight.poll(), writer, summary);
+        }
+        inFlight.add(pool.submit(() -> scoreChunk(lines)));
+    }
+
+    private static void write(Future<Chunk> future, Writer writer, Summary summary)
+            throws IOException, InterruptedException {
+        Chunk chunk;
+        try {
+            chunk = future.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Ошибка подсчета блока строк", e.getCause());
+        }
+        writer.write(chunk.output.toString());
+        summary.merge(chunk.summary);
+    }
+
+    private Chunk scoreChunk(List<String> lines) {
+        Chunk chunk = new Chunk();
+        for (String line : lines) {
+            if (jsonl) {
+                scoreJson(line, chunk);
+            } else {
+                scoreCsv(line, chunk);
+            }
+        }
+        return chunk;
+    }
+
+    private void readHeader(String headerLine) {
+        header = splitCsv(headerLine).toArray(new String[0]);
+        for (int i = 0; i < header.length; i++) {
+            header[i] = header[i].trim();
+            if (header[i].equalsIgnoreCase("test")) {
+                testColumn = i;
+            } else if (header[i].equalsIgnoreCase("scores")) {
+                scoresColumn = i;
+            }
+        }
+        if (fixedTest == null && defaultTest == null && testColumn < 0) {
+            throw new IllegalArgumentException("В каталоге несколько тестов: укажите колонку test или параметр test=");
+        }
+    }
+
+    private void scoreCsv(String line, Chunk chunk) {
+        List<String> fields = splitCsv(line);
+        chunk.output.append(line).append(',');
+        DiagnosticTest test = fixedTest;
+        try {
+            if (test == null) {
+                test = findTest(field(fields, testColumn));
+            }
+            byte[] answers;
+            String scores = field(fields, scoresColumn);
+            if (scores != null && !scores.isBlank()) {
+                answers = parseScores(test, scores);
+            } else {
+                int[] columns = parameterColumns.computeIfAbsent(test, this::findParameterColumns);
+                answers = new byte[test.getQuestionCount()];
+                for (int q = 0; q < answers.length; q++) {
+                    answers[q] = (byte) answerFor(test, q, field(fields, columns[q]));
+                }
+            }
+            DiagnosisSession session = new DiagnosisSession(test, answers.length, answers, 0);
+            String diagnosis = session.getDiagnosisResult();
+            chunk.output.append(session.getTotalScore()).append(',').append(quoteCsv(diagnosis)).append(",\n");
+            chunk.summary.count(test.getTestName(), diagnosis);
+        } catch (IllegalArgumentException e) {
+            chunk.output.append(",,").append(quoteCsv(e.getMessage())).append('\n');
+            chunk.summary.error(test != null ? test.getTestName() : null);
+        }
+    }
+
+    private void scoreJson(String line, Chunk chunk) {
+        DiagnosticTest test = fixedTest;
+        ObjectNode node = null;
+        try {
+            JsonNode parsed = MAPPER.readTree(line);
+            if (!(parsed instanceof ObjectNode)) {
+                throw new IllegalArgumentException("Строка не является JSON-объектом");
+            }
+            node = (ObjectNode) parsed;
+            if (test == null) {
+                test = findTest(text(node.get("test")));
+            }
+            byte[] answers;
+            String scores = text(node.get("scores"));
+            if (scores != null && !scores.isBlank()) {
+                answers = parseScores(test, scores);
+            } else {
+                answers = new byte[test.getQuestionCount()];
+                for (int q = 0; q < answers.length; q++) {
+                    DiagnosticQuestion question = test.getQuestion(q);
+                    JsonNode value = question.getShortcut() != null ? node.get(question.getShortcut()) : null;
+                    if (value == null && question.getParameterName() != null) {
+                        value = node.get(question.getParameterName());
+                    }
+                    answers[q] = (byte) answerFor(test, q, text(value));
+                }
+            }
+            DiagnosisSession session = new DiagnosisSession(test, answers.length, answers, 0);
+            String diagnosis = session.getDiagnosisResult();
+            node.put("total", session.getTotalScore());
+            node.put("diagnosis", diagnosis);
+            chunk.summary.count(test.getTestName(), diagnosis);
+        } catch (IOException | IllegalArgumentException e) {
+            if (node == null) {
+                node = MAPPER.createObjectNode();
+                node.put("line", line);
+            }
+            node.put("error", e instanceof IOException ? "Некорректный JSON" : e.getMessage());
+            chunk.summary.error(test != null ? test.getTestName() : null);
+        }
+        chunk.output.append(node.toString()).append('\n');
+    }
+
+    private DiagnosticTest findTest(String value) {
+        if (value == null || value.isBlank()) {
+            if (defaultTest != null) {
+                return defaultTest;
+            }
+            throw new IllegalArgumentException("Не указан тест");
+        }
+        String key = value.trim();
+        DiagnosticTest test = catalog.findByCommand(key);
+        if (test == null) {
+            test = testsByName.get(key.toLowerCase(Locale.ROOT));
+        }
+        if (test == null) {
+            throw new IllegalArgumentException("Тест не найден: " + key);
+        }
+        return test;
+    }
+
+    private static byte[] parseScores(DiagnosticTest test, String scores) {
+        byte[] answers = BatchAnswer.parse(test, scores);
+        if (answers == null) {
+            throw new IllegalArgumentException("Некорректные баллы: " + scores.trim());
+        }
+        return answers;
+    }
+
+    /**
+     * Сопоставляет балл параметра варианту ответа
+     * @return индекс ответа
+     * @throws IllegalArgumentException если балла нет или он не соответствует ровно одному варианту
+     */
+    private static int answerFor(DiagnosticTest test, int questionIndex, String value) {
+        DiagnosticQuestion question = test.getQuestion(questionIndex);
+        String name = question.getShortcut() != null ? question.getShortcut()
+                : question.getParameterName() != null ? question.getParameterName() : "№" + (questionIndex + 1);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Нет балла параметра " + name);
+        }
+        int answer;
+        try {
+            answer = question.findAnswerByValue(Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Балл параметра " + name + " не является числом: " + value.trim());
+        }
+        if (answer < 0) {
+            throw new IllegalArgumentException("Недопустимый балл параметра " + name + ": " + value.trim());
+        }
+        return answer;
+    }
+
+    /**
+     * Колонки CSV с баллами по вопросам теста: по обозначению параметра, затем по его названию
+     */
+    private int[] findParameterColumns(DiagnosticTest test) {
+        int[] columns = new int[test.getQuestionCount()];
+        for (int q = 0; q < columns.length; q++) {
+            DiagnosticQuestion question = test.getQuestion(q);
+            columns[q] = findColumn(question.getShortcut());
+            if (columns[q] < 0) {
+                columns[q] = findColumn(question.getParameterName());
+            }
+        }
+        return columns;
+    }
+
+    private int findColumn(String name) {
+        if (name != null) {
+            for (int i = 0; i < header.length; i++) {
+                if (header[i].equalsIgnoreCase(name)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static String field(List<String> fields, int column) {
+        return column >= 0 && column < fields.size() ? fields.get(column) : null;
+    }
+
+    private static String text(JsonNode value) {
+        return value == null || value.isNull() ? null : value.asText();
+    }
+
+    /**
+     * Разбивает строку CSV на поля (разделитель - запятая, поля в двойных кавычках с "" внутри)
+     */
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static String quoteCsv(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Результат подсчета блока строк
+     */
+    private static final class Chunk {
+        private final StringBuilder output = new StringBuilder();
+        private final Summary summary = new Summary();
+    }
+
+    /**
+     * Количество результатов по тестам и диагнозам. Блоки считают свои сводки без синхронизации,
+     * общая сводка объединяет их в потоке записи.
+     */
+    static final class Summary {
+        // Название теста -> диагноз -> количество (в порядке первого появления)
+        private final Map<String, Map<String, long[]>> counts = new LinkedHashMap<>();
+        private final Map<String, long[]> errors = new LinkedHashMap<>();
+        private long scored;
+        private long failed;
+
+        private void count(String testName, String diagnosis) {
+            counts.computeIfAbsent(testName, key -> new LinkedHashMap<>())
+                    .computeIfAbsent(diagnosis, key -> new long[1])[0]++;
+            scored++;
+        }
+
+        private void error(String testName) {
+            errors.computeIfAbsent(testName != null ? testName : "", key -> new long[1])[0]++;
+            failed++;
+        }
+
+        private void merge(Summary other) {
+            other.counts.forEach((testName, diagnoses) -> diagnoses.forEach((diagnosis, count) ->
+                    counts.computeIfAbsent(testName, key -> new LinkedHashMap<>())
+                            .computeIfAbsent(diagnosis, key -> new long[1])[0] += count[0]));
+            other.errors.forEach((testName, count) -> errors.computeIfAbsent(testName, key -> new long[1])[0] += count[0]);
+            scored += other.scored;
+            failed += other.failed;
+        }
+
+        private String report(double seconds) {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format(Locale.ROOT, "Подсчитано строк: %d, с ошибками: %d, за %.1f с (%.0f строк/с)%n",
+                    scored, failed, seconds, seconds > 0 ? (scored + failed) / seconds : 0));
+            counts.forEach((testName, diagnoses) -> {
+                text.append(testName).append(":\n");
+                diagnoses.forEach((diagnosis, count) ->
+                        text.append("  ").append(diagnosis).append(": ").append(count[0]).append('\n'));
+            });
+            errors.forEach((testName, count) -> text.append("Ошибки")
+                    .append(testName.isEmpty() ? "" : " (" + testName + ")").append(": ").append(count[0]).append('\n'));
+            return text.toString();
+        }
+
+        private String csv() {
+            StringBuilder text = new StringBuilder("test,diagnosis,count\n");
+            counts.forEach((testName, diagnoses) -> diagnoses.forEach((diagnosis, count) ->
+                    text.append(quoteCsv(testName)).append(',').append(quoteCsv(diagnosis))
+                            .append(',').append(count[0]).append('\n')));
+            errors.forEach((testName, count) ->
+                    text.append(quoteCsv(testName)).append(",,").append(count[0]).append('\n'));
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.example;
+
+import java.util.Arrays;
+
+/**
+ * Состояние прохождения теста, закодированное в callback_data кнопки inline-клавиатуры.
+ * Формат: "a" + отпечаток теста (base36) + "." + по одному символу на каждый ответ,
+ * включая ответ, соответствующий самой кнопке. Сумма баллов вычисляется из ответов,
+ * номер вопроса равен количеству ответов, поэтому на сервере сессия не хранится.
+ * Разбор не использует исключений: некорректные данные дают null.
+ */
+public final class CallbackAnswer {
+    // Ограничение Telegram на длину callback_data, байт
+    public static final int MAX_DATA_LENGTH = 64;
+
+    private static final char PREFIX = 'a';
+    private static final char SEPARATOR = '.';
+
+    // Алфавит для индексов ответов (по одному символу на ответ)
+    private static final String ALPHABET = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ-_";
+    private static final byte[] CHAR_TO_INDEX = new byte[128];
+
+    // Самый длинный отпечаток: 2^32 - 1 в base36
+    private static final int MAX_FINGERPRINT_LENGTH = Long.toString(0xFFFFFFFFL, 36).length();
+
+    // Максимальное число вопросов теста, помещающееся в callback_data
+    public static final int MAX_QUESTIONS = MAX_DATA_LENGTH - MAX_FINGERPRINT_LENGTH - 2;
+
+    static {
+        Arrays.fill(CHAR_TO_INDEX, (byte) -1);
+        for (int i = 0; i < ALPHABET.length(); i++) {
+            CHAR_TO_INDEX[ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final int fingerprint;
+    private final byte[] answers;
+
+    private CallbackAnswer(int fingerprint, byte[] answers) {
+        this.fingerprint = fingerprint;
+        this.answers = answers;
+    }
+
+    /**
+     * Проверить, можно ли проходить тест через inline-клавиатуру
+     * @param test тест
+     * @return true, если ответы теста помещаются в callback_data
+     */
+    public static boolean supports(DiagnosticTest test) {
+        if (test.getQuestionCount() > MAX_QUESTIONS) {
+            return false;
+        }
+        for (DiagnosticQuestion question : test.getQuestions()) {
+            if (question.getAnswerCount() > ALPHABET.length()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Кодирует данные кнопки: предыдущие ответы и ответ этой кнопки
+     * @param test тест
+     * @param answers индексы ответов на предыдущие вопросы
+     * @param count количество предыдущих ответов
+     * @param answerIndex индекс ответа, соответствующего кнопке
+     * @return строка callback_data
+     */
+    public static String encode(DiagnosticTest test, byte[] answers, int count, int answerIndex) {
+        StringBuilder data = new StringBuilder(MAX_DATA_LENGTH)
+                .append(PREFIX)
+                .append(Long.toString(Integer.toUnsignedLong(test.getFingerprint()), 36))
+                .append(SEPARATOR);
+        for (int q = 0; q < count; q++) {
+            data.append(ALPHABET.charAt(answers[q]));
+        }
+        return data.append(ALPHABET.charAt(answerIndex)).toString();
+    }
+
+    /**
+     * Разбирает callback_data
+     * @param data строка callback_data
+     * @return состояние или null, если данные имеют неверный формат
+     */
+    public static CallbackAnswer decode(String data) {
+        if (data == null || data.length() < 3 || data.length() > MAX_DATA_LENGTH || data.charAt(0) != PREFIX) {
+            return null;
+        }
+        int separator = data.indexOf(SEPARATOR);
+        if (separator < 2 || separator > MAX_FINGERPRINT_LENGTH + 1 || separator == data.length() - 1) {
+            return null;
+        }
+        long fingerprint = 0;
+        for (int i = 1; i < separator; i++) {
+            int digit = Character.digit(data.charAt(i), 36);
+            if (digit < 0) {
+                return null;
+            }
+            fingerprint = fingerprint * 36 + digit;
+        }
+        if (fingerprint > 0xFFFFFFFFL) {
+            return null;
+        }
+        byte[] answers = new byte[data.length() - separator - 1];
+        for (int i = 0; i < answers.length; i++) {
+            char c = data.charAt(separator + 1 + i);
+            if (c >= CHAR_TO_INDEX.length || CHAR_TO_INDEX[c] < 0) {
+                return null;
+            }
+            answers[i] = CHAR_TO_INDEX[c];
+        }
+        return new CallbackAnswer((int) fingerprint, answers);
+    }
+
+    /**
+     * @return отпечаток теста
+     */
+    public int getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return индексы ответов по порядку вопросов (последний - ответ нажатой кнопки)
+     */
+    public byte[] getAnswers() {
+        return answers;
+    }
+
+    /**
+     * Проверить, что ответы соответствуют тесту
+     * @param test тест
+     * @return true, если число ответов не превышает число вопросов и все индексы допустимы
+     */
+    public boolean matches(DiagnosticTest test) {
+        if (answers.length > test.getQuestionCount()) {
+            return false;
+        }
+        for (int q = 0; q < answers.length; q++) {
+            if (answers[q] >= test.getQuestion(q).getAnswerCount()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,38 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Компилятор каталога тестов, запускаемый при сборке (фаза process-classes).
+ * Разбирает и проверяет JSON-каталог так же, как при загрузке ботом, и записывает
+ * {@link BinaryCatalog}. Ошибка в каталоге прерывает сборку.
+ *
+ * Использование: CatalogCompiler &lt;tests_config.json&gt; &lt;tests_catalog.bin&gt;
+ */
+public final class CatalogCompiler {
+
+    private CatalogCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Использование: CatalogCompiler <tests_config.json> <tests_catalog.bin>");
+        }
+        Path source = Paths.get(args[0]);
+        Path target = Paths.get(args[1]);
+
+        TestCatalog catalog;
+        try (InputStream is = Files.newInputStream(source)) {
+            catalog = new TestCatalog(0, TestCatalog.parse(is));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Некорректный каталог тестов " + source + ": " + e.getMessage(), e);
+        }
+        BinaryCatalog.write(catalog, target);
+        System.out.println("Каталог тестов скомпилирован: " + catalog.getTests().size() + " тестов, "
+                + Files.size(target) + " байт -> " + target);
+    }
+}
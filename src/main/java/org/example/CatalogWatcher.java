@@ -0,0 +1,103 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Следит за каталогом файлов тестов и перезагружает каталог при изменениях.
+ * События файловой системы собираются в пачку в течение debounce, чтобы файл,
+ * записываемый частями, разбирался один раз. Если новая версия не проходит проверку,
+ * остается текущая, а ошибка записывается в лог.
+ */
+public class CatalogWatcher implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(CatalogWatcher.class);
+
+    private final Path directory;
+    private final long debounceMillis;
+    private final Consumer<TestCatalog> listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    // Версия последнего загруженного каталога; изменяется только потоком наблюдения
+    private long version;
+
+    /**
+     * @param directory каталог с файлами тестов
+     * @param initial текущая версия каталога
+     * @param debounceMillis время накопления событий перед перезагрузкой, мс
+     * @param listener получатель новой версии каталога
+     * @throws IOException если не удалось подписаться на изменения каталога
+     */
+    public CatalogWatcher(Path directory, TestCatalog initial, long debounceMillis,
+                          Consumer<TestCatalog> listener) throws IOException {
+        this.directory = directory;
+        this.version = initial.getVersion();
+        this.debounceMillis = debounceMillis;
+        this.listener = listener;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.thread = new Thread(this::run, "catalog-watcher");
+        thread.setDaemon(true);
+    }
+
+    /**
+     * Запускает наблюдение за каталогом
+     */
+    public void start() {
+        thread.start();
+        logger.info("Наблюдение за каталогом тестов {} запущено", directory);
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                // Собираем события, пока файлы продолжают изменяться
+                do {
+                    key.pollEvents();
+                    if (!key.reset()) {
+                        logger.error("Каталог тестов {} больше недоступен, наблюдение остановлено", directory);
+                        return;
+                    }
+                } while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null);
+                reload();
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Наблюдение остановлено
+        }
+    }
+
+    private void reload() {
+        long started = System.nanoTime();
+        try {
+            TestCatalog catalog = TestCatalog.fromDirectory(directory, version + 1);
+            version = catalog.getVersion();
+            listener.accept(catalog);
+            logger.info("Каталог тестов обновлен до версии {}: {} тестов за {} мс", version,
+                    catalog.getTests().size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (IOException | RuntimeException e) {
+            logger.error("Новая версия каталога тестов отклонена, используется версия {}", version, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        thread.interrupt();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.error("Ошибка остановки наблюдения за каталогом тестов", e);
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Входной узел кластера (CLUSTER_ROLE=ingress).
+ * Принимает обновления webhook от Telegram и пересылает каждое рабочему узлу
+ * ({@link ClusterWorker}), которому чат принадлежит по кольцу согласованного хеширования.
+ * Сессии хранятся только на рабочих узлах, поэтому входной узел не держит состояния
+ * и может обслуживать много рабочих процессов на одной или нескольких машинах.
+ *
+ * Доступность рабочих узлов проверяется периодически. При изменении набора доступных узлов
+ * новый список рассылается рабочим узлам (они передают сессии новым владельцам), и только
+ * после этого входной узел переключает маршрутизацию. Если узел не ответил на пересылку,
+ * обновление сразу пересылается следующему владельцу, а узел исключается при ближайшей проверке.
+ */
+public class ClusterIngress implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(ClusterIngress.class);
+
+    // Заголовок, в котором Telegram передает секрет, указанный при setWebhook
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final List<String> workers;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService health;
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final long healthIntervalMillis;
+    private final String secret;
+
+    // Кольцо доступных рабочих узлов; изменяется только потоком проверки доступности
+    private volatile ConsistentHashRing ring = new ConsistentHashRing(List.of());
+
+    private final LongAdder forwarded;
+    private final LongAdder forwardFailures;
+    private final LongAdder rejected;
+    private final LatencyHistogram forwardLatency;
+
+    /**
+     * @param workers рабочие узлы ("host:port")
+     * @param port порт HTTP-сервера
+     * @param path путь, на который Telegram отправляет обновления
+     * @param secret секрет для проверки запросов (null - без проверки)
+     * @param threads количество потоков обработки запросов
+     * @param requestTimeoutMillis время ожидания ответа рабочего узла, мс
+     * @param healthIntervalMillis интервал проверки доступности рабочих узлов, мс
+     * @param metrics реестр метрик
+     * @throws IOException если не удалось открыть порт
+     */
+    public ClusterIngress(List<String> workers, int port, String path, String secret, int threads,
+                          long requestTimeoutMillis, long healthIntervalMillis, BotMetrics metrics) throws IOException {
+        if (workers.isEmpty()) {
+            throw new IllegalArgumentException("Список рабочих узлов кластера пуст");
+        }
+        this.workers = List.copyOf(workers);
+        this.secret = secret;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.healthIntervalMillis = healthIntervalMillis;
+        this.client = HttpClient.newBuilder().connectTimeout(requestTimeout).build();
+
+        this.forwarded = metrics.counter("bot_cluster_forwarded_total", "Обновления, переданные рабочим узлам");
+        this.forwardFailures = metrics.counter("bot_cluster_forward_failures_total",
+                "Неудачные попытки передачи обновления рабочему узлу");
+        this.rejected = metrics.counter("bot_cluster_rejected_total",
+                "Обновления, не принятые ни одним рабочим узлом");
+        this.forwardLatency = metrics.histogram("bot_cluster_forward_latency_seconds",
+                "Время передачи обновления рабочему узлу");
+        metrics.gauge("bot_cluster_live_workers", "Доступные рабочие узлы", () -> ring.getNodes().size());
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "ingress-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.health = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(path, this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Создает входной узел по параметрам из config.env
+     * @param config конфигурация
+     * @param metrics реестр метрик
+     * @return узел (еще не запущенный) или null, если CLUSTER_WORKERS не задан
+     * @throws IOException если не удалось открыть порт
+     */
+    public static ClusterIngress fromConfig(BotConfig config, BotMetrics metrics) throws IOException {
+        String workers = config.get("CLUSTER_WORKERS");
+        if (workers == null) {
+            return null;
+        }
+        return new ClusterIngress(
+                Arrays.stream(workers.split(","))
+                        .map(String::trim)
+                        .filter(worker -> !worker.isEmpty())
+                        .collect(Collectors.toList()),
+                config.getInt("WEBHOOK_PORT", 8443),
+                config.get("WEBHOOK_PATH", "/webhook"),
+                config.get("WEBHOOK_SECRET"),
+                config.getInt("WEBHOOK_THREADS", 16),
+                config.getLong("CLUSTER_REQUEST_TIMEOUT_MS", 5000),
+                config.getLong("CLUSTER_HEALTH_INTERVAL_MS", 2000),
+                metrics);
+    }
+
+    /**
+     * Запускает проверку рабочих узлов и прием запросов
+     */
+    public void start() {
+        health.scheduleWithFixedDelay(this::checkWorkers, 0, healthIntervalMillis, TimeUnit.MILLISECONDS);
+        server.start();
+        logger.info("Входной узел кластера запущен на порту {}, рабочие узлы: {}",
+                server.getAddress().getPort(), workers);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (secret != null && !secret.equals(exchange.getRequestHeaders().getFirst(SECRET_HEADER))) {
+                logger.warn("Запрос webhook с неверным секретом от {}", exchange.getRemoteAddress());
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+
+            byte[] body;
+            Update update;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+                update = mapper.readValue(body, Update.class);
+            } catch (IOException e) {
+                logger.warn("Некорректный JSON в запросе webhook", e);
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            Long chatId = MedicalDiagnosisBot.chatIdOf(update);
+            if (chatId == null) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            // Если ни один узел не принял обновление, Telegram повторит доставку
+            exchange.sendResponseHeaders(forward(chatId, body) ? 200 : 503, -1);
+        } catch (Exception e) {
+            logger.error("Ошибка обработки запроса webhook", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Пересылает обновление владельцу чата. Недоступные узлы исключаются из кольца
+     * только для этого обновления; общее кольцо меняет поток проверки доступности.
+     */
+    private boolean forward(long chatId, byte[] body) {
+        ConsistentHashRing current = ring;
+        List<String> failed = new ArrayList<>();
+        while (!current.isEmpty()) {
+            String owner = current.ownerOf(chatId);
+            long started = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(
+                        HttpRequest.newBuilder(ClusterWorker.uri(owner, "/cluster/update"))
+                                .timeout(requestTimeout)
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                                .build(),
+                        HttpResponse.BodyHandlers.discarding());
+                forwardLatency.recordSince(started);
+                if (response.statusCode() == 200) {
+                    forwarded.increment();
+                    return true;
+                }
+                // Узел доступен, но не смог обработать обновление: другому владельцу оно не пересылается
+                logger.warn("Узел {} не принял обновление чата {}: HTTP {}", owner, chatId, response.statusCode());
+                rejected.increment();
+                return false;
+            } catch (IOException e) {
+                forwardFailures.increment();
+                logger.warn("Узел {} недоступен: {}", owner, e.getMessage());
+                failed.add(owner);
+                List<String> remaining = new ArrayList<>(current.getNodes());
+                remaining.removeAll(failed);
+                current = new ConsistentHashRing(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        rejected.increment();
+        return false;
+    }
+
+    /**
+     * Проверяет доступность рабочих узлов и, если набор изменился или узел знает
+     * устаревший список участников, рассылает новый список.
+     */
+    private void checkWorkers() {
+        try {
+            List<String> live = new ArrayList<>();
+            List<String> known = new ArrayList<>();
+            for (String worker : workers) {
+                String members = probe(worker);
+                if (members != null) {
+                    live.add(worker);
+                    known.add(members);
+                }
+            }
+            ConsistentHashRing newRing = new ConsistentHashRing(live);
+            String expected = String.join("\n", newRing.getNodes());
+            boolean changed = !newRing.getNodes().equals(ring.getNodes())
+                    || !known.stream().allMatch(expected::equals);
+            if (!changed) {
+                return;
+            }
+            logger.info("Доступные рабочие узлы: {}", newRing.getNodes());
+            // Сначала узлы передают сессии новым владельцам, затем меняется маршрутизация
+            for (String worker : newRing.getNodes()) {
+                sendMembers(worker, expected);
+            }
+            ring = newRing;
+        } catch (Exception e) {
+            logger.error("Ошибка проверки рабочих узлов", e);
+        }
+    }
+
+    /**
+     * @return список участников, известный узлу, или null, если узел недоступен
+     */
+    private String probe(String worker) {
+        try {
+            HttpResponse<String> response = client.send(
+                    HttpRequest.newBuilder(ClusterWorker.uri(worker, "/cluster/health"))
+                            .timeout(requestTimeout)
+                            .GET()
+                            .build(),
+                    HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            return response.statusCode() == 200 ? response.body() : null;
+        } catch (IOException e) {
+            logger.debug("Узел {} недоступен: {}", worker, e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private void sendMembers(String worker, String members) {
+        try {
+            HttpResponse<Void> response = client.send(
+                    HttpRequest.newBuilder(ClusterWorker.uri(worker, "/cluster/members"))
+                            .timeout(requestTimeout)
+                            .POST(HttpRequest.BodyPublishers.ofString(members, StandardCharsets.UTF_8))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() != 200) {
+                logger.warn("Узел {} не принял список участников: HTTP {}", worker, response.statusCode());
+            }
+        } catch (IOException e) {
+            logger.warn("Не удалось отправить список участников узлу {}: {}", worker, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        health.shutdownNow();
+        server.stop(1);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,443 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Рабочий узел кластера (CLUSTER_ROLE=worker).
+ * Принимает от входного узла ({@link ClusterIngress}) обновления своих чатов и обрабатывает их
+ * локальным ботом; ответы отправляются в Telegram напрямую. Список участников кластера
+ * приходит от входного узла; при его изменении узел передает новым владельцам сессии чатов,
+ * которые по кольцу согласованного хеширования ему больше не принадлежат. Новое кольцо
+ * применяется после того, как новые владельцы приняли сессии; до этого обновления уходящих
+ * чатов ждут завершения передачи. Обновления, пришедшие на узел после смены владельца,
+ * перенаправляются новому владельцу.
+ *
+ * HTTP-интерфейс:
+ * POST /cluster/update - JSON с Update;
+ * POST /cluster/members - список участников, по одному на строку (ответ после передачи сессий);
+ * POST /cluster/sessions - сессии в формате {@link SessionHandoff};
+ * GET /cluster/health - список участников, известный узлу.
+ */
+public class ClusterWorker implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(ClusterWorker.class);
+
+    // Заголовок перенаправленного обновления: повторно оно не перенаправляется
+    static final String FORWARDED_HEADER = "X-Cluster-Forwarded";
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final MedicalDiagnosisBot bot;
+    private final String nodeId;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final HttpClient client;
+    private final Duration requestTimeout;
+
+    // Текущее кольцо кластера; до первого списка от входного узла узел владеет всеми чатами
+    private volatile ConsistentHashRing ring;
+
+    // Выполняемая передача сессий (null - передачи нет). Новое кольцо публикуется только
+    // после того, как новые владельцы приняли сессии уходящих чатов
+    private volatile HandOff handOff;
+
+    // Блокировка чтения - маршрутизация обновления, записи - смена кольца и начало передачи
+    private final ReadWriteLock routing = new ReentrantReadWriteLock();
+
+    private final LongAdder released;
+    private final LongAdder adopted;
+    private final LongAdder redirected;
+
+    /**
+     * @param bot бот, обрабатывающий обновления
+     * @param nodeId идентификатор узла в кластере ("host:port", по которому узел доступен другим)
+     * @param host адрес, на котором принимаются запросы
+     * @param port порт HTTP-сервера
+     * @param threads количество потоков обработки запросов
+     * @param requestTimeoutMillis время ожидания запросов к другим узлам, мс
+     * @throws IOException если не удалось открыть порт
+     */
+    public ClusterWorker(MedicalDiagnosisBot bot, String nodeId, String host, int port,
+                         int threads, long requestTimeoutMillis) throws IOException {
+        this.bot = bot;
+        this.nodeId = nodeId;
+        this.ring = new ConsistentHashRing(List.of(nodeId));
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.client = HttpClient.newBuilder().connectTimeout(requestTimeout).build();
+
+        BotMetrics metrics = bot.getMetrics();
+        this.released = metrics.counter("bot_cluster_sessions_released_total",
+                "Сессии, переданные другим узлам кластера");
+        this.adopted = metrics.counter("bot_cluster_sessions_adopted_total",
+                "Сессии, принятые от других узлов кластера");
+        this.redirected = metrics.counter("bot_cluster_redirected_total",
+                "Обновления, перенаправленные новому владельцу чата");
+        metrics.gauge("bot_cluster_members", "Участники кластера, известные узлу", () -> ring.getNodes().size());
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "cluster-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(host), port), 0);
+        server.createContext("/cluster/update", this::handleUpdate);
+        server.createContext("/cluster/members", this::handleMembers);
+        server.createContext("/cluster/sessions", this::handleSessions);
+        server.createContext("/cluster/health", this::handleHealth);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Создает рабочий узел по параметрам из config.env
+     * @param bot бот, обрабатывающий обновления
+     * @param config конфигурация бота
+     * @return узел (еще не запущенный) или null, если CLUSTER_NODE_ID не задан
+     * @throws IOException если не удалось открыть порт
+     */
+    public static ClusterWorker fromConfig(MedicalDiagnosisBot bot, BotConfig config) throws IOException {
+        String nodeId = config.get("CLUSTER_NODE_ID");
+        if (nodeId == null) {
+            return null;
+        }
+        return new ClusterWorker(bot, nodeId,
+                config.get("CLUSTER_HOST", "0.0.0.0"),
+                config.getInt("CLUSTER_PORT", 9000),
+                config.getInt("CLUSTER_THREADS", 16),
+                config.getLong("CLUSTER_REQUEST_TIMEOUT_MS", 5000));
+    }
+
+    /**
+     * Запускает прием запросов
+     */
+    public void start() {
+        server.start();
+        logger.info("Узел кластера {} запущен на порту {}", nodeId, server.getAddress().getPort());
+    }
+
+    private void handleUpdate(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body;
+            Update update;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = in.readAllBytes();
+                update = mapper.readValue(body, Update.class);
+            } catch (IOException e) {
+                logger.warn("Некорректный JSON обновления от {}", exchange.getRemoteAddress());
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            Long chatId = MedicalDiagnosisBot.chatIdOf(update);
+            if (chatId == null) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            String owner;
+            if (exchange.getRequestHeaders().getFirst(FORWARDED_HEADER) != null) {
+                bot.dispatch(update, bot::enqueueReply);
+                owner = null;
+            } else {
+                owner = dispatchIfOwned(update, chatId, true);
+            }
+            if (owner != null) {
+                // Чат перешел к другому узлу, а входной узел еще не знает об этом
+                redirected.increment();
+                exchange.sendResponseHeaders(forward(owner, body), -1);
+                return;
+            }
+            // Как и в WebhookServer, отклоненное или повторное обновление не возвращается на повторную доставку
+            exchange.sendResponseHeaders(200, -1);
+        } catch (Exception e) {
+            logger.error("Ошибка обработки обновления от входного узла", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Обрабатывает обновление, если чат принадлежит этому узлу. Решение о маршруте и постановка
+     * в очередь чата выполняются под блокировкой чтения, поэтому обновление не может попасть
+     * в очередь после снятия сессии для передачи. Обновления уходящего чата во время передачи
+     * ждут ее завершения: до этого его сессия еще не принята новым владельцем.
+     * @param waitHandOff ждать завершения передачи сессий уходящего чата
+     * @return владелец, которому нужно перенаправить обновление, или null, если оно принято узлом
+     */
+    private String dispatchIfOwned(Update update, long chatId, boolean waitHandOff) {
+        HandOff pending;
+        routing.readLock().lock();
+        try {
+            String owner = ring.ownerOf(chatId);
+            pending = handOff;
+            boolean leaving = pending != null && !nodeId.equals(pending.target.ownerOf(chatId));
+            if (!leaving || !waitHandOff || !nodeId.equals(owner)) {
+                if (owner == null || nodeId.equals(owner)) {
+                    bot.dispatch(update, bot::enqueueReply);
+                    return null;
+                }
+                return owner;
+            }
+        } finally {
+            routing.readLock().unlock();
+        }
+        try {
+            pending.done.get(requestTimeout.toMillis() * 2, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.warn("Передача сессий не завершилась, обновление чата {} обрабатывается по текущему кольцу",
+                    chatId);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return dispatchIfOwned(update, chatId, false);
+    }
+
+    private int forward(String owner, byte[] body) {
+        try {
+            HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri(owner, "/cluster/update"))
+                            .timeout(requestTimeout)
+                            .header(FORWARDED_HEADER, nodeId)
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding());
+            return response.statusCode();
+        } catch (IOException e) {
+            logger.warn("Не удалось перенаправить обновление узлу {}: {}", owner, e.getMessage());
+            return 503;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 503;
+        }
+    }
+
+    private void handleMembers(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            List<String> members = new ArrayList<>();
+            try (InputStream in = exchange.getRequestBody()) {
+                for (String line : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("\n")) {
+                    if (!line.isBlank()) {
+                        members.add(line.trim());
+                    }
+                }
+            }
+            if (!members.contains(nodeId)) {
+                // Входной узел считает этот узел недоступным: сессии отдаются остальным
+                logger.warn("Узел {} отсутствует в новом списке участников кластера", nodeId);
+            }
+            changeMembers(new ConsistentHashRing(members));
+            exchange.sendResponseHeaders(200, -1);
+        } catch (Exception e) {
+            logger.error("Ошибка смены участников кластера", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Применяет новый список участников и передает сессии чатов, сменивших владельца.
+     * Изменения применяются последовательно.
+     */
+    private synchronized void changeMembers(ConsistentHashRing newRing) {
+        if (newRing.getNodes().equals(ring.getNodes())) {
+            return;
+        }
+        logger.info("Участники кластера: {} -> {}", ring.getNodes(), newRing.getNodes());
+        HandOff pending = new HandOff(newRing);
+        routing.writeLock().lock();
+        try {
+            handOff = pending;
+        } finally {
+            routing.writeLock().unlock();
+        }
+        try {
+            handOff(newRing);
+        } finally {
+            // Уходящие чаты маршрутизируются на этот узел, пока их сессии не приняты новыми владельцами
+            routing.writeLock().lock();
+            try {
+                ring = newRing;
+                handOff = null;
+            } finally {
+                routing.writeLock().unlock();
+            }
+            pending.done.complete(null);
+        }
+    }
+
+    /**
+     * Передает владельцам по кольцу ring сессии, которые больше не принадлежат этому узлу.
+     * Если передача не удалась, сессии остаются на этом узле.
+     */
+    private void handOff(ConsistentHashRing target) {
+        Map<Long, DiagnosisSession> sessions;
+        try {
+            sessions = bot.releaseSessions(chatId -> {
+                String owner = target.ownerOf(chatId);
+                return owner != null && !nodeId.equals(owner);
+            }).get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            logger.error("Не удалось снять сессии для передачи", e);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (sessions.isEmpty()) {
+            return;
+        }
+
+        Map<String, Map<Long, DiagnosisSession>> byOwner = new HashMap<>();
+        sessions.forEach((chatId, session) ->
+                byOwner.computeIfAbsent(target.ownerOf(chatId), owner -> new HashMap<>()).put(chatId, session));
+        byOwner.forEach((owner, ownerSessions) -> {
+            if (sendSessions(owner, ownerSessions)) {
+                released.add(ownerSessions.size());
+                logger.info("Узлу {} передано сессий: {}", owner, ownerSessions.size());
+            } else {
+                ownerSessions.forEach(bot::adoptSession);
+            }
+        });
+    }
+
+    private boolean sendSessions(String owner, Map<Long, DiagnosisSession> sessions) {
+        try {
+            HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri(owner, "/cluster/sessions"))
+                            .timeout(requestTimeout)
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(SessionHandoff.encode(sessions)))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() == 200) {
+                return true;
+            }
+            logger.error("Узел {} не принял сессии: HTTP {}", owner, response.statusCode());
+        } catch (IOException e) {
+            logger.error("Не удалось передать сессии узлу {}: {}", owner, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void handleSessions(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            Map<Long, DiagnosisSession> sessions;
+            try (InputStream in = exchange.getRequestBody()) {
+                sessions = SessionHandoff.decode(new ByteArrayInputStream(in.readAllBytes()), bot.getCatalog());
+            } catch (IOException e) {
+                logger.warn("Некорректные данные передачи сессий от {}", exchange.getRemoteAddress(), e);
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            int accepted = 0;
+            for (Map.Entry<Long, DiagnosisSession> entry : sessions.entrySet()) {
+                if (bot.adoptSession(entry.getKey(), entry.getValue())) {
+                    accepted++;
+                } else {
+                    logger.warn("Очередь обработки переполнена, переданная сессия {} отброшена", entry.getKey());
+                }
+            }
+            adopted.add(accepted);
+            logger.info("Принято сессий от {}: {}", exchange.getRemoteAddress(), accepted);
+            exchange.sendResponseHeaders(200, -1);
+        } catch (Exception e) {
+            logger.error("Ошибка приема сессий", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] response = String.join("\n", ring.getNodes()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (Exception e) {
+            logger.error("Ошибка проверки состояния узла", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    static URI uri(String node, String path) {
+        return URI.create("http://" + node + path);
+    }
+
+    /**
+     * Плановый выход из кластера: сессии передаются оставшимся участникам,
+     * затем прием запросов прекращается.
+     */
+    @Override
+    public void close() {
+        List<String> remaining = new ArrayList<>(ring.getNodes());
+        remaining.remove(nodeId);
+        if (!remaining.isEmpty()) {
+            logger.info("Узел {} выходит из кластера, сессии передаются: {}", nodeId, remaining);
+            changeMembers(new ConsistentHashRing(remaining));
+        }
+        server.stop(1);
+        executor.shutdownNow();
+    }
+
+    /**
+     * Передача сессий при смене участников: целевое кольцо и признак завершения
+     */
+    private static final class HandOff {
+        private final ConsistentHashRing target;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private HandOff(ConsistentHashRing target) {
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongConsumer;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Потокобезопасное хранилище сессий с разделением блокировок.
+ * Чаты распределяются по STRIPES независимым таблицам LongSessionMap,
+ * каждая защищена собственной блокировкой, поэтому разные чаты почти не конкурируют.
+ * Фоновый поток периодически удаляет сессии, к которым не обращались дольше idleTtl,
+ * а при превышении maxSessions вытесняет самые давние по времени последнего обращения.
+ */
+public class ConcurrentSessionStore implements SessionStore {
+    private final Logger logger = LoggerFactory.getLogger(ConcurrentSessionStore.class);
+
+    // Количество сегментов (степень двойки)
+    private static final int STRIPES = 64;
+    private static final int STRIPE_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(STRIPES);
+
+    private final LongSessionMap[] stripes = new LongSessionMap[STRIPES];
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Время простоя, после которого сессия считается брошенной
+    private final long idleTtlMillis;
+
+    // Максимальное число одновременно хранимых сессий
+    private final int maxSessions;
+
+    // Получает chatId каждой сессии, удаленной очисткой (может быть null)
+    private final LongConsumer evictionListener;
+
+    private final ScheduledExecutorService sweeper;
+
+    /**
+     * @param idleTtlMillis время простоя сессии до удаления, мс
+     * @param maxSessions максимальное число сессий
+     * @param sweepIntervalMillis период запуска очистки, мс
+     * @param evictionListener вызывается для каждой сессии, удаленной очисткой, под блокировкой
+     *                         ее сегмента (null - не уведомлять)
+     */
+    public ConcurrentSessionStore(long idleTtlMillis, int maxSessions, long sweepIntervalMillis,
+                                  LongConsumer evictionListener) {
+        if (idleTtlMillis <= 0 || maxSessions <= 0 || sweepIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Параметры хранилища сессий должны быть положительными");
+        }
+        this.idleTtlMillis = idleTtlMillis;
+        this.maxSessions = maxSessions;
+        this.evictionListener = evictionListener;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new LongSessionMap();
+        }
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweepSafely,
+                sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private LongSessionMap stripeFor(long chatId) {
+        // Старшие биты хеша выбирают сегмент, младшие - слот внутри таблицы
+        return stripes[(int) (LongSessionMap.mix(chatId) >>> STRIPE_SHIFT)];
+    }
+
+    @Override
+    public DiagnosisSession get(long chatId) {
+        DiagnosisSession session;
+        LongSessionMap stripe = stripeFor(chatId);
+        synchronized (stripe) {
+            session = stripe.get(chatId);
+        }
+        if (session != null) {
+            session.touch();
+        }
+        return session;
+    }
+
+    @Override
+    public void put(long chatId, DiagnosisSession session) {
+        session.touch();
+        LongSessionMap stripe = stripeFor(chatId);
+        synchronized (stripe) {
+            if (stripe.put(chatId, session) == null) {
+                size.incrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public DiagnosisSession remove(long chatId) {
+        LongSessionMap stripe = stripeFor(chatId);
+        synchronized (stripe) {
+            DiagnosisSession removed = stripe.remove(chatId);
+            if (removed != null) {
+                size.decrementAndGet();
+            }
+            return removed;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void forEach(ObjLongConsumer<DiagnosisSession> action) {
+        long[] keys = new long[16];
+        DiagnosisSession[] values = new DiagnosisSession[16];
+        for (LongSessionMap stripe : stripes) {
+            // Копируем сегмент под блокировкой, а действие выполняем без нее
+            int count = 0;
+            synchronized (stripe) {
+                if (keys.length < stripe.size()) {
+                    keys = new long[stripe.size()];
+                    values = new DiagnosisSession[stripe.size()];
+                }
+                for (int slot = 0; slot < stripe.capacity(); slot++) {
+                    DiagnosisSession session = stripe.valueAt(slot);
+                    if (session != null) {
+                        keys[count] = stripe.keyAt(slot);
+                        values[count++] = session;
+                    }
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                action.accept(values[i], keys[i]);
+                values[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Удаляет просроченные сессии и вытесняет лишние при превышении лимита
+     * @param nowMillis текущее время, мс
+     * @return количество удаленных сессий
+     */
+    int sweep(long nowMillis) {
+        int evicted = evictTouchedBefore(nowMillis - idleTtlMillis, Integer.MAX_VALUE);
+
+        int excess = size.get() - maxSessions;
+        if (excess > 0) {
+            // Порог времени обращения, ниже которого лежат excess самых давних сессий
+            long[] touches = new long[size.get()];
+            int count = 0;
+            for (LongSessionMap stripe : stripes) {
+                synchronized (stripe) {
+                    for (int slot = 0; slot < stripe.capacity() && count < touches.length; slot++) {
+                        DiagnosisSession session = stripe.valueAt(slot);
+                        if (session != null) {
+                            touches[count++] = session.getLastTouchedMillis();
+                        }
+                    }
+                }
+            }
+            Arrays.sort(touches, 0, count);
+            if (count > 0) {
+                evicted += evictTouchedBefore(touches[Math.min(excess, count) - 1] + 1, excess);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * Удаляет сессии, к которым последний раз обращались раньше deadline
+     * @param deadlineMillis граница времени обращения (не включительно)
+     * @param limit максимальное количество удаляемых сессий
+     * @return количество удаленных сессий
+     */
+    private int evictTouchedBefore(long deadlineMillis, int limit) {
+        int evicted = 0;
+        long[] expired = new long[16];
+        for (LongSessionMap stripe : stripes) {
+            if (evicted >= limit) {
+                break;
+            }
+            synchronized (stripe) {
+                // Сначала собираем ключи: удаление сдвигает записи таблицы
+                int count = 0;
+                for (int slot = 0; slot < stripe.capacity(); slot++) {
+                    DiagnosisSession session = stripe.valueAt(slot);
+                    if (session != null && session.getLastTouchedMillis() < deadlineMillis) {
+                        if (count == expired.length) {
+                            expired = Arrays.copyOf(expired, count << 1);
+                        }
+                        expired[count++] = stripe.keyAt(slot);
+                    }
+                }
+                // Уведомление под блокировкой: новая сессия того же чата не может
+                // появиться в хранилище раньше, чем будет обработано удаление старой
+                for (int i = 0; i < count && evicted < limit; i++) {
+                    stripe.remove(expired[i]);
+                    size.decrementAndGet();
+                    evicted++;
+                    if (evictionListener != null) {
+                        evictionListener.accept(expired[i]);
+                    }
+                }
+            }
+        }
+        return evicted;
+    }
+
+    private void sweepSafely() {
+        try {
+            int evicted = sweep(System.currentTimeMillis());
+            if (evicted > 0) {
+                logger.info("Удалено неактивных сессий: {}, осталось: {}", evicted, size.get());
+            }
+        } catch (Exception e) {
+            // Исключение не должно останавливать периодическую очистку
+            logger.error("Ошибка при очистке сессий", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+}
@@ -0,0 +1,101 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Неизменяемое кольцо согласованного хеширования для распределения чатов между узлами.
+ * Каждый узел занимает на кольце virtualNodes точек, поэтому при добавлении или удалении
+ * узла к другим узлам переходит только его доля чатов, а нагрузка распределяется равномерно.
+ * Позиции вычисляются из строкового идентификатора узла (String.hashCode стабилен
+ * между процессами), поэтому кольцо одинаково на всех узлах с одним списком участников.
+ */
+public final class ConsistentHashRing {
+    // Точек на кольце для каждого узла
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    private final List<String> nodes;
+    // Позиции точек по возрастанию и владельцы точек (индекс в nodes)
+    private final long[] positions;
+    private final int[] owners;
+
+    /**
+     * @param nodes идентификаторы узлов (например, "host:port"); повторы игнорируются
+     * @param virtualNodes количество точек на кольце для каждого узла
+     */
+    public ConsistentHashRing(Collection<String> nodes, int virtualNodes) {
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("Количество точек узла на кольце должно быть положительным");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(nodes)));
+
+        int size = this.nodes.size() * virtualNodes;
+        long[] points = new long[size];
+        for (int node = 0, i = 0; node < this.nodes.size(); node++) {
+            long seed = (long) this.nodes.get(node).hashCode() << 32;
+            for (int replica = 0; replica < virtualNodes; replica++, i++) {
+                // Старшие биты - позиция, младшие - номер узла: сортировка сохраняет владельца
+                points[i] = (mix(seed | replica) & ~0xFFFFL) | node;
+            }
+        }
+        Arrays.sort(points);
+        this.positions = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            positions[i] = points[i] & ~0xFFFFL;
+            owners[i] = (int) (points[i] & 0xFFFFL);
+        }
+    }
+
+    /**
+     * @param nodes идентификаторы узлов
+     */
+    public ConsistentHashRing(Collection<String> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Определить узел, владеющий чатом
+     * @param chatId идентификатор чата
+     * @return идентификатор узла или null, если кольцо пустое
+     */
+    public String ownerOf(long chatId) {
+        if (positions.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(positions, mix(chatId) & ~0xFFFFL);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        // Первая точка по часовой стрелке; после последней - переход к началу кольца
+        return nodes.get(owners[index == positions.length ? 0 : index]);
+    }
+
+    /**
+     * @return узлы кольца по алфавиту
+     */
+    public List<String> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return true, если на кольце нет узлов
+     */
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * Перемешивание SplitMix64: близкие chatId попадают в далекие точки кольца
+     */
+    private static long mix(long value) {
+        long z = value + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -1,31 +1,104 @@
 package org.example;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.HashMap;
 
 /**
  * Класс для управления сессией прохождения диагностического теста.
  * Хранит состояние тестирования для конкретного пользователя.
+ * Состояние компактно: номер вопроса, накопленная сумма баллов
+ * и по одному байту (индекс выбранного ответа) на каждый параметр теста.
  */
 public class DiagnosisSession {
+    // Значение в answerIndexes для параметра, на который еще не ответили
+    private static final byte NO_ANSWER = -1;
+
     // Текущий тест, который проходит пользователь
-    private DiagnosticTest currentTest;
+    private final DiagnosticTest currentTest;
+
+    // Индексы выбранных ответов по номеру вопроса (параметра)
+    private final byte[] answerIndexes;
 
-    // Коллекция для хранения ответов пользователя: ключ/значение - название параметра/баллы
-    private Map<String, Integer> collectedAnswers;
+    // Сумма баллов за записанные ответы
+    private int totalScore;
 
     // Индекс текущего вопроса
     private int currentQuestionIndex;
 
+    // Время начала теста, мс (0 - неизвестно)
+    private final long startedMillis;
+
+    // Время последнего обращения к сессии, мс (используется для удаления брошенных сессий)
+    private volatile long lastTouchedMillis;
+
     /**
      * Конструктор сессии
      * @param test - диагностический тест для прохождения
      */
     public DiagnosisSession(DiagnosticTest test) {
+        this(test, System.currentTimeMillis());
+    }
+
+    /**
+     * Конструктор сессии с заданным временем начала (для восстановления из журнала)
+     * @param test - диагностический тест для прохождения
+     * @param startedMillis - время начала теста, мс
+     */
+    DiagnosisSession(DiagnosticTest test, long startedMillis) {
         this.currentTest = test;
-        this.collectedAnswers = new HashMap<>();
+        this.answerIndexes = new byte[test.getQuestionCount()];
+        Arrays.fill(answerIndexes, NO_ANSWER);
         this.currentQuestionIndex = 0;
+        this.startedMillis = startedMillis;
+        this.lastTouchedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Восстановить сессию из сохраненного состояния
+     * @param test - диагностический тест
+     * @param currentQuestionIndex - количество уже заданных вопросов
+     * @param answerIndexes - индексы ответов по вопросам (-1 - нет ответа)
+     * @param startedMillis - время начала теста, мс (0 - неизвестно)
+     * @throws IllegalArgumentException если состояние не соответствует тесту
+     */
+    DiagnosisSession(DiagnosticTest test, int currentQuestionIndex, byte[] answerIndexes, long startedMillis) {
+        this(test, startedMillis);
+        if (currentQuestionIndex < 0 || currentQuestionIndex > test.getQuestionCount()
+                || answerIndexes.length != test.getQuestionCount()) {
+            throw new IllegalArgumentException("Сохраненное состояние сессии не соответствует тесту");
+        }
+        for (int q = 0; q < answerIndexes.length; q++) {
+            int answer = answerIndexes[q];
+            if (answer != NO_ANSWER) {
+                if (answer < 0 || answer >= test.getQuestion(q).getAnswerCount()) {
+                    throw new IllegalArgumentException("Некорректный индекс ответа в сохраненной сессии");
+                }
+                this.answerIndexes[q] = (byte) answer;
+                this.totalScore += test.getQuestion(q).getAnswerValue(answer);
+            }
+        }
+        this.currentQuestionIndex = currentQuestionIndex;
+    }
+
+    /**
+     * Отметить обращение к сессии текущим временем
+     */
+    public void touch() {
+        lastTouchedMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * @return время начала теста, мс (0 - неизвестно)
+     */
+    public long getStartedMillis() {
+        return startedMillis;
+    }
+
+    /**
+     * @return время последнего обращения к сессии, мс
+     */
+    public long getLastTouchedMillis() {
+        return lastTouchedMillis;
     }
 
     /**
@@ -33,19 +106,53 @@ public class DiagnosisSession {
      * @return следующий вопрос или null, если тест завершен
      */
     public DiagnosticQuestion getNextQuestion() {
-        if (currentQuestionIndex >= currentTest.getQuestions().size()) {
+        if (currentQuestionIndex >= currentTest.getQuestionCount()) {
             return null;
         }
-        return currentTest.getQuestions().get(currentQuestionIndex++);
+        return currentTest.getQuestion(currentQuestionIndex++);
+    }
+
+    /**
+     * Записать ответ пользователя на текущий вопрос
+     * @param answerIndex - индекс выбранного ответа (начиная с 0)
+     * @throws IllegalStateException если текущий вопрос не задан
+     */
+    public void recordAnswer(int answerIndex) {
+        int questionIndex = currentQuestionIndex - 1;
+        if (questionIndex < 0 || questionIndex >= answerIndexes.length) {
+            throw new IllegalStateException("Нет текущего вопроса для записи ответа");
+        }
+        DiagnosticQuestion question = currentTest.getQuestion(questionIndex);
+        // При повторном ответе на тот же вопрос заменяем ранее учтенный балл
+        byte previous = answerIndexes[questionIndex];
+        if (previous != NO_ANSWER) {
+            totalScore -= question.getAnswerValue(previous);
+        }
+        answerIndexes[questionIndex] = (byte) answerIndex;
+        totalScore += question.getAnswerValue(answerIndex);
+    }
+
+    /**
+     * Записать ответ на текущий вопрос и перейти к следующему. Оба изменения выполняются
+     * под блокировкой сессии, как и {@link #copyState}, которым журнал читает сессию для снимка,
+     * поэтому в снимок не попадает ответ без перехода к следующему вопросу
+     * @param answerIndex - индекс выбранного ответа (начиная с 0)
+     * @return следующий вопрос или null, если это был последний вопрос теста
+     * @throws IllegalStateException если текущий вопрос не задан
+     */
+    public synchronized DiagnosticQuestion answer(int answerIndex) {
+        recordAnswer(answerIndex);
+        return getNextQuestion();
     }
 
     /**
-     * Записать ответ пользователя
-     * @param parameterName - название параметра/характеристики
-     * @param value - балл за ответ
+     * Скопировать согласованное состояние сессии (для снимка журнала)
+     * @param answers массив не короче числа вопросов теста, в который копируются индексы ответов
+     * @return номер текущего вопроса
      */
-    public void recordAnswer(String parameterName, int value) {
-        collectedAnswers.put(parameterName, value);
+    public synchronized int copyState(byte[] answers) {
+        System.arraycopy(answerIndexes, 0, answers, 0, answerIndexes.length);
+        return currentQuestionIndex;
     }
 
     /**
@@ -53,7 +160,7 @@ public class DiagnosisSession {
      * @return true если все вопросы пройдены
      */
     public boolean isComplete() {
-        return currentQuestionIndex >= currentTest.getQuestions().size();
+        return currentQuestionIndex >= currentTest.getQuestionCount();
     }
 
     /**
@@ -61,10 +168,32 @@ public class DiagnosisSession {
      * @return строку с диагнозом/результатом
      */
     public String getDiagnosisResult() {
-        int totalScore = collectedAnswers.values().stream().mapToInt(Integer::intValue).sum();
         return currentTest.evaluateDiagnosis(totalScore);
     }
 
+    /**
+     * @return сумма баллов за записанные ответы
+     */
+    public int getTotalScore() {
+        return totalScore;
+    }
+
+    /**
+     * Получить индекс ответа на вопрос
+     * @param questionIndex индекс вопроса (начиная с 0)
+     * @return индекс выбранного ответа или -1, если ответа нет
+     */
+    public int getAnswerIndex(int questionIndex) {
+        return answerIndexes[questionIndex];
+    }
+
+    /**
+     * @return тест, который проходит пользователь
+     */
+    public DiagnosticTest getTest() {
+        return currentTest;
+    }
+
     /**
      * Получить номер текущего вопроса (начиная с 1)
      * @return текущий номер вопроса
@@ -78,7 +207,7 @@ public class DiagnosisSession {
      * @return общее число вопросов
      */
     public int getTotalQuestions() {
-        return currentTest.getQuestions().size();
+        return currentTest.getQuestionCount();
     }
 
     /**
@@ -86,10 +215,21 @@ public class DiagnosisSession {
      * @return текущий вопрос или null если вопросы не начаты/завершены
      */
     public DiagnosticQuestion getCurrentQuestion() {
-        if (currentQuestionIndex == 0 || currentQuestionIndex > currentTest.getQuestions().size()) {
+        if (currentQuestionIndex == 0 || currentQuestionIndex > currentTest.getQuestionCount()) {
+            return null;
+        }
+        return currentTest.getQuestion(currentQuestionIndex - 1);
+    }
+
+    /**
+     * Получить готовый текст текущего вопроса с вариантами ответов
+     * @return текст вопроса или null если вопросы не начаты/завершены
+     */
+    public String getCurrentQuestionPrompt() {
+        if (currentQuestionIndex == 0 || currentQuestionIndex > currentTest.getQuestionCount()) {
             return null;
         }
-        return currentTest.getQuestions().get(currentQuestionIndex - 1);
+        return currentTest.getQuestionPrompt(currentQuestionIndex - 1);
     }
 
     /**
@@ -99,4 +239,4 @@ public class DiagnosisSession {
     public List<DiagnosticQuestion> getQuestions() {
         return currentTest.getQuestions();
     }
-}
\ No newline at end of file
+}
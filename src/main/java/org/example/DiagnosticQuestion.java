@@ -2,41 +2,137 @@ package org.example;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import java.util.Map;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Map;
 
 /**
  * Класс, представляющий вопрос диагностического теста.
  * Содержит текст вопроса, параметр для оценки и варианты ответов с баллами.
+ * Объект неизменяем: варианты ответов хранятся в порядке из конфигурации
+ * и адресуются по индексу.
  */
 public class DiagnosticQuestion {
+    // Максимальное число вариантов ответа: индекс ответа в сессии хранится в одном байте
+    public static final int MAX_ANSWERS = Byte.MAX_VALUE;
+
     // Текст вопроса, который увидит пользователь
-    private String questionText;
+    private final String questionText;
 
     // Название параметра, который оценивается этим вопросом
-    private String parameterName;
+    private final String parameterName;
+
+    // Короткое обозначение параметра для ввода всех баллов одним сообщением (например, "E"), или null
+    private final String shortcut;
 
-    // Варианты ответов и соответствующие им баллы:
-    // Ключ - текст ответа, Значение - балл за этот ответ
-    private Map<String, Integer> answerValues;
+    // Варианты ответов и соответствующие им баллы (индекс - номер ответа, начиная с 0)
+    private final String[] answerTexts;
+    private final int[] answerScores;
+
+    // Неизменяемые представления вариантов ответов для внешнего кода
+    private final List<String> possibleAnswers;
+    private final Map<String, Integer> answerValues;
+
+    // Минимальный и максимальный балл среди вариантов ответа
+    private final int minValue;
+    private final int maxValue;
 
     /**
      * Конструктор для десериализации из JSON
      * @param questionText текст вопроса
      * @param parameterName название оцениваемого параметра
-     * @param answers варианты ответов с баллами
+     * @param shortcut короткое обозначение параметра из латинских букв (null - не задано)
+     * @param answers варианты ответов с баллами (порядок задает нумерацию ответов)
+     * @throws IllegalArgumentException если для ответа не указан балл, вариантов больше MAX_ANSWERS
+     * или обозначение параметра содержит не только латинские буквы
      */
     @JsonCreator
     public DiagnosticQuestion(
             @JsonProperty("questionText") String questionText,
             @JsonProperty("parameterName") String parameterName,
+            @JsonProperty("shortcut") String shortcut,
             @JsonProperty("answers") Map<String, Integer> answers) {
+        // Jackson создает LinkedHashMap, поэтому порядок ответов совпадает с порядком в JSON
+        this(questionText, parameterName, shortcut,
+                answers != null ? answers.keySet().toArray(new String[0]) : new String[0],
+                scores(answers));
+    }
+
+    /**
+     * Конструктор вопроса без короткого обозначения параметра
+     * @param questionText текст вопроса
+     * @param parameterName название оцениваемого параметра
+     * @param answers варианты ответов с баллами (порядок задает нумерацию ответов)
+     */
+    public DiagnosticQuestion(String questionText, String parameterName, Map<String, Integer> answers) {
+        this(questionText, parameterName, null, answers);
+    }
+
+    /**
+     * Конструктор из массивов вариантов ответа (например, при чтении бинарного каталога)
+     * @param questionText текст вопроса
+     * @param parameterName название оцениваемого параметра
+     * @param shortcut короткое обозначение параметра или null
+     * @param answerTexts тексты ответов в порядке нумерации
+     * @param answerScores баллы ответов
+     * @throws IllegalArgumentException если вариантов больше MAX_ANSWERS или обозначение некорректно
+     */
+    DiagnosticQuestion(String questionText, String parameterName, String shortcut,
+                       String[] answerTexts, int[] answerScores) {
+        if (answerTexts.length > MAX_ANSWERS) {
+            throw new IllegalArgumentException("Слишком много вариантов ответа в вопросе \"" + questionText
+                    + "\": " + answerTexts.length + " (максимум " + MAX_ANSWERS + ")");
+        }
+        if (shortcut != null && !isLatinWord(shortcut)) {
+            throw new IllegalArgumentException("Обозначение параметра должно состоять из латинских букв: \""
+                    + shortcut + "\"");
+        }
         this.questionText = questionText;
         this.parameterName = parameterName;
-        // Создаем копию Map для защиты от внешних изменений
-        this.answerValues = answers != null ? new HashMap<>(answers) : new HashMap<>();
+        this.shortcut = shortcut;
+        this.answerTexts = answerTexts;
+        this.answerScores = answerScores;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        Map<String, Integer> ordered = new LinkedHashMap<>();
+        for (int i = 0; i < answerTexts.length; i++) {
+            min = Math.min(min, answerScores[i]);
+            max = Math.max(max, answerScores[i]);
+            ordered.put(answerTexts[i], answerScores[i]);
+        }
+        this.minValue = answerTexts.length > 0 ? min : 0;
+        this.maxValue = answerTexts.length > 0 ? max : 0;
+        this.possibleAnswers = List.of(answerTexts);
+        this.answerValues = Collections.unmodifiableMap(ordered);
+    }
+
+    private static int[] scores(Map<String, Integer> answers) {
+        if (answers == null) {
+            return new int[0];
+        }
+        int[] scores = new int[answers.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : answers.entrySet()) {
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("Не указан балл для ответа \"" + entry.getKey() + "\"");
+            }
+            scores[i++] = entry.getValue();
+        }
+        return scores;
+    }
+
+    private static boolean isLatinWord(String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if ((c < 'A' || c > 'Z') && (c < 'a' || c > 'z')) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -54,19 +150,49 @@ public class DiagnosticQuestion {
     }
 
     /**
-     * Возвращает копию Map с вариантами ответов и баллами
-     * @return неизменяемую копию answerValues
+     * @return короткое обозначение параметра (например, "E") или null, если не задано
+     */
+    public String getShortcut() {
+        return shortcut;
+    }
+
+    /**
+     * Возвращает варианты ответов и баллы в порядке из конфигурации
+     * @return неизменяемое представление answerValues
      */
     public Map<String, Integer> getAnswerValues() {
-        return new HashMap<>(answerValues);
+        return answerValues;
     }
 
     /**
      * Возвращает список возможных вариантов ответа
-     * @return список текстов ответов
+     * @return неизменяемый список текстов ответов в порядке нумерации
      */
     public List<String> getPossibleAnswers() {
-        return new ArrayList<>(answerValues.keySet());
+        return possibleAnswers;
+    }
+
+    /**
+     * @return количество вариантов ответа
+     */
+    public int getAnswerCount() {
+        return answerTexts.length;
+    }
+
+    /**
+     * @param index индекс ответа (начиная с 0)
+     * @return текст ответа
+     */
+    public String getAnswerText(int index) {
+        return answerTexts[index];
+    }
+
+    /**
+     * @param index индекс ответа (начиная с 0)
+     * @return балл за ответ
+     */
+    public int getAnswerValue(int index) {
+        return answerScores[index];
     }
 
     /**
@@ -75,6 +201,43 @@ public class DiagnosticQuestion {
      * @return балл за ответ или null если ответ не найден
      */
     public Integer getValueForAnswer(String answer) {
-        return answerValues.get(answer);
+        for (int i = 0; i < answerTexts.length; i++) {
+            if (answerTexts[i].equals(answer)) {
+                return answerScores[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Найти вариант ответа по баллу
+     * @param value балл
+     * @return индекс ответа или -1, если балл не встречается или ему соответствует несколько ответов
+     */
+    public int findAnswerByValue(int value) {
+        int found = -1;
+        for (int i = 0; i < answerScores.length; i++) {
+            if (answerScores[i] == value) {
+                if (found >= 0) {
+                    return -1;
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return минимальный балл среди вариантов ответа
+     */
+    public int getMinValue() {
+        return minValue;
+    }
+
+    /**
+     * @return максимальный балл среди вариантов ответа
+     */
+    public int getMaxValue() {
+        return maxValue;
     }
-}
\ No newline at end of file
+}
@@ -3,63 +3,190 @@ package org.example;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.Locale;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.Set;
+import java.util.zip.CRC32C;
 
 /**
  * Класс, представляющий диагностический тест.
  * Содержит название теста, список вопросов и правила интерпретации результатов.
+ * Объект неизменяем; тексты вопросов для отправки пользователю формируются один раз при загрузке.
  */
 public class DiagnosticTest {
-    private String testName;
+    // Максимальное число вопросов: номер вопроса и их количество хранятся в журнале сессий
+    // и при передаче сессий в одном байте
+    public static final int MAX_QUESTIONS = 255;
 
-    // Список вопросов теста
-    private List<DiagnosticQuestion> questions;
+    // Результат для суммы баллов, не попадающей ни в одно правило интерпретации
+    static final String UNKNOWN_DIAGNOSIS = "Не удалось определить диагноз";
 
-    private Map<String, String> diagnosisMap;
+    private final String testName;
+
+    // Команда запуска теста (например, "/glasgow") и ее описание для меню бота
+    private final String command;
+    private final String description;
+
+    // Список вопросов теста (неизменяемый)
+    private final List<DiagnosticQuestion> questions;
+
+    // Правила интерпретации, скомпилированные в таблицу интервалов
+    private final ScoreIntervalIndex diagnosisIndex;
+
+    // Готовые тексты сообщений для каждого вопроса: "Вопрос N из M: ..." с вариантами ответов
+    private final String[] questionPrompts;
+
+    private final int minScore;
+    private final int maxScore;
+
+    // Отпечаток структуры теста (название, вопросы, ответы и баллы): одинаков для
+    // одинаковых тестов на любых узлах и меняется при изменении теста
+    private final int fingerprint;
 
     /**
      * Конструктор для десериализации из JSON
      * @param testName название теста
+     * @param command команда запуска теста (null - тест недоступен по команде)
+     * @param description описание теста для меню (null - используется название)
      * @param questions список вопросов
      * @param diagnosisRules правила интерпретации результатов
+     * @throws IllegalArgumentException если правила имеют неверный формат или пересекаются,
+     * либо обозначения параметров повторяются
      */
     @JsonCreator
     public DiagnosticTest(
             @JsonProperty("testName") String testName,
+            @JsonProperty("command") String command,
+            @JsonProperty("description") String description,
             @JsonProperty("questions") List<DiagnosticQuestion> questions,
             @JsonProperty("diagnosisRules") Map<String, String> diagnosisRules) {
         this.testName = testName;
+        this.command = command;
+        this.description = description != null ? description : testName;
         // Защита от null при инициализации коллекций
-        this.questions = questions != null ? questions : new ArrayList<>();
-        this.diagnosisMap = diagnosisRules != null ? diagnosisRules : new HashMap<>();
+        this.questions = questions != null ? List.copyOf(questions) : List.of();
+        checkShortcuts(testName, this.questions);
+        this.minScore = this.questions.stream().mapToInt(DiagnosticQuestion::getMinValue).sum();
+        this.maxScore = this.questions.stream().mapToInt(DiagnosticQuestion::getMaxValue).sum();
+        this.diagnosisIndex = ScoreIntervalIndex.compile(
+                diagnosisRules != null ? diagnosisRules : Map.of(), minScore, maxScore);
+        this.questionPrompts = renderPrompts(this.questions);
+        this.fingerprint = computeFingerprint(testName, this.questions);
     }
 
     /**
-     * Добавить вопрос в тест
-     * @param question объект DiagnosticQuestion
+     * Конструктор из скомпилированного представления (бинарный каталог):
+     * правила, тексты вопросов и отпечаток уже вычислены при сборке
+     * @param testName название теста
+     * @param command команда запуска теста или null
+     * @param description описание теста для меню
+     * @param questions список вопросов
+     * @param diagnosisIndex скомпилированные правила интерпретации
+     * @param questionPrompts готовые тексты вопросов
+     * @param fingerprint отпечаток структуры теста
      */
-    public void addQuestion(DiagnosticQuestion question) {
-        questions.add(question);
+    DiagnosticTest(String testName, String command, String description, List<DiagnosticQuestion> questions,
+                   ScoreIntervalIndex diagnosisIndex, String[] questionPrompts, int fingerprint) {
+        this.testName = testName;
+        this.command = command;
+        this.description = description;
+        this.questions = List.copyOf(questions);
+        this.minScore = this.questions.stream().mapToInt(DiagnosticQuestion::getMinValue).sum();
+        this.maxScore = this.questions.stream().mapToInt(DiagnosticQuestion::getMaxValue).sum();
+        this.diagnosisIndex = diagnosisIndex;
+        this.questionPrompts = questionPrompts;
+        this.fingerprint = fingerprint;
     }
 
     /**
-     * Добавить правило интерпретации результатов
-     * @param scoreRange диапазон баллов (например "0-5")
-     * @param diagnosis текст диагноза/результата
+     * Проверяет, что обозначения параметров не повторяются (без учета регистра)
      */
-    public void addDiagnosisRule(String scoreRange, String diagnosis) {
-        diagnosisMap.put(scoreRange, diagnosis);
+    private static void checkShortcuts(String testName, List<DiagnosticQuestion> questions) {
+        Set<String> seen = new HashSet<>();
+        for (DiagnosticQuestion question : questions) {
+            String shortcut = question.getShortcut();
+            if (shortcut != null && !seen.add(shortcut.toUpperCase(Locale.ROOT))) {
+                throw new IllegalArgumentException("Повторяется обозначение параметра \"" + shortcut
+                        + "\" в тесте \"" + testName + "\"");
+            }
+        }
     }
 
     /**
-     * Получить копию списка вопросов
-     * @return новый список вопросов
+     * Вычисляет CRC32C от названия теста, текстов вопросов, ответов и баллов
+     */
+    private static int computeFingerprint(String testName, List<DiagnosticQuestion> questions) {
+        CRC32C crc = new CRC32C();
+        update(crc, testName);
+        for (DiagnosticQuestion question : questions) {
+            update(crc, question.getQuestionText());
+            for (int i = 0; i < question.getAnswerCount(); i++) {
+                update(crc, question.getAnswerText(i));
+                update(crc, Integer.toString(question.getAnswerValue(i)));
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    private static void update(CRC32C crc, String value) {
+        if (value != null) {
+            crc.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        crc.update(0);
+    }
+
+    /**
+     * Формирует тексты сообщений для всех вопросов теста
+     */
+    private static String[] renderPrompts(List<DiagnosticQuestion> questions) {
+        String[] prompts = new String[questions.size()];
+        for (int q = 0; q < prompts.length; q++) {
+            DiagnosticQuestion question = questions.get(q);
+            StringBuilder text = new StringBuilder();
+            text.append("Вопрос ").append(q + 1)
+                    .append(" из ").append(prompts.length).append(":\n")
+                    .append(question.getQuestionText()).append("\n\n");
+            for (int i = 0; i < question.getAnswerCount(); i++) {
+                text.append(i + 1).append(". ").append(question.getAnswerText(i)).append("\n");
+            }
+            prompts[q] = text.toString();
+        }
+        return prompts;
+    }
+
+    /**
+     * Получить список вопросов
+     * @return неизменяемый список вопросов
      */
     public List<DiagnosticQuestion> getQuestions() {
-        return new ArrayList<>(questions); // Возвращаем копию для защиты от изменений
+        return questions;
+    }
+
+    /**
+     * @return количество вопросов в тесте
+     */
+    public int getQuestionCount() {
+        return questions.size();
+    }
+
+    /**
+     * @param index индекс вопроса (начиная с 0)
+     * @return вопрос теста
+     */
+    public DiagnosticQuestion getQuestion(int index) {
+        return questions.get(index);
+    }
+
+    /**
+     * Получить готовый текст сообщения с вопросом и вариантами ответов
+     * @param index индекс вопроса (начиная с 0)
+     * @return текст вида "Вопрос N из M:\n..."
+     */
+    public String getQuestionPrompt(int index) {
+        return questionPrompts[index];
     }
 
     /**
@@ -70,43 +197,55 @@ public class DiagnosticTest {
         return testName;
     }
 
+    /**
+     * @return команда запуска теста или null
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    /**
+     * @return описание теста для меню бота
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return отпечаток структуры теста
+     */
+    public int getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return скомпилированные правила интерпретации
+     */
+    ScoreIntervalIndex getDiagnosisIndex() {
+        return diagnosisIndex;
+    }
+
     /**
      * Оценить результат теста на основе суммы баллов
      * @param totalScore общая сумма баллов
      * @return текстовый результат диагностики
      */
     public String evaluateDiagnosis(int totalScore) {
-        // Проверяем каждый диапазон в правилах
-        for (Map.Entry<String, String> entry : diagnosisMap.entrySet()) {
-            if (isScoreInRange(totalScore, entry.getKey())) {
-                return entry.getValue();
-            }
-        }
-        return "Не удалось определить диагноз"; // Значение по умолчанию
-    }
-
-    /**
-     * Проверяет попадание балла в диапазон
-     * @param score проверяемый балл
-     * @param range строка диапазона (форматы: "X-Y", "<=X", ">=Y")
-     * @return true если балл попадает в диапазон
-     */
-    private boolean isScoreInRange(int score, String range) {
-        if (range.contains("-")) {
-            // Обработка диапазона вида "X-Y"
-            String[] parts = range.split("-");
-            int min = Integer.parseInt(parts[0].trim());
-            int max = Integer.parseInt(parts[1].trim());
-            return score >= min && score <= max;
-        } else if (range.startsWith("<=")) {
-            // Обработка "<=X"
-            int max = Integer.parseInt(range.substring(2).trim());
-            return score <= max;
-        } else if (range.startsWith(">=")) {
-            // Обработка ">=Y"
-            int min = Integer.parseInt(range.substring(2).trim());
-            return score >= min;
-        }
-        return false;
+        String diagnosis = diagnosisIndex.lookup(totalScore);
+        return diagnosis != null ? diagnosis : UNKNOWN_DIAGNOSIS;
+    }
+
+    /**
+     * @return минимально возможная сумма баллов теста
+     */
+    public int getMinScore() {
+        return minScore;
+    }
+
+    /**
+     * @return максимально возможная сумма баллов теста
+     */
+    public int getMaxScore() {
+        return maxScore;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,181 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограничение частоты входящих обновлений по чатам ("корзина токенов" на каждый чат).
+ * Проверка выполняется до маршрутизации команд, поэтому обновления сверх лимита не доходят
+ * до сессий и журналов и не занимают очередь диспетчера.
+ *
+ * Таблица фиксированного размера с открытой адресацией без блокировок: пара (chatId, состояние)
+ * в AtomicLongArray, состояние корзины упаковано в один long и обновляется через CAS.
+ * Состояние: биты 24-63 - время последнего пополнения, мс; биты 1-23 - токены в 1/256 долях;
+ * бит 0 - о превышении лимита уже сообщено. Удалений нет: запись чата, чья корзина успела бы
+ * наполниться, ничем не отличается от отсутствующей и занимается новым чатом. Если в пределах
+ * MAX_PROBE ячеек нет ни свободной, ни устаревшей записи, занимается запись с самым давним
+ * пополнением, поэтому память постоянна при любом числе чатов. При гонках за одну ячейку
+ * возможна неточность в один токен, что для защиты от флуда несущественно.
+ */
+public final class InboundLimiter {
+    /**
+     * Решение по входящему обновлению
+     */
+    public enum Decision {
+        // Обновление принимается в обработку
+        ADMIT,
+        // Лимит превышен впервые после последнего принятого обновления: пользователю сообщается об этом
+        REJECT_NOTIFY,
+        // Лимит превышен повторно: обновление отбрасывается молча
+        REJECT
+    }
+
+    // Свободная ячейка (chatId в Telegram не бывает равен Long.MIN_VALUE)
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    // Сколько ячеек просматривается от исходной позиции ключа
+    private static final int MAX_PROBE = 16;
+
+    private static final int TIME_SHIFT = 24;
+    private static final int UNIT = 256;
+    private static final long MAX_UNITS = (1L << 23) - 1;
+    private static final long NOTIFIED = 1;
+
+    // Пары (chatId, состояние) подряд; состояние 0 - полная корзина
+    private final AtomicLongArray table;
+    private final int mask;
+
+    private final long capacityUnits;
+    private final double unitsPerMilli;
+
+    // Время, за которое пустая корзина наполняется полностью, мс
+    private final long fullRefillMillis;
+
+    private final long baseNanos = System.nanoTime();
+
+    /**
+     * @param ratePerMinute допустимое число обновлений чата в минуту
+     * @param burst допустимая пачка обновлений подряд
+     * @param tableSize число отслеживаемых чатов (округляется вверх до степени двойки)
+     */
+    public InboundLimiter(int ratePerMinute, int burst, int tableSize) {
+        if (ratePerMinute <= 0 || burst <= 0 || (long) burst * UNIT > MAX_UNITS
+                || tableSize <= 0 || tableSize > 1 << 28) {
+            throw new IllegalArgumentException("Некорректные параметры ограничения входящих обновлений");
+        }
+        int size = Math.max(MAX_PROBE, Integer.highestOneBit(tableSize - 1) << 1);
+        this.table = new AtomicLongArray(size * 2);
+        for (int slot = 0; slot < size; slot++) {
+            table.set(slot * 2, EMPTY);
+        }
+        this.mask = size - 1;
+        this.capacityUnits = (long) burst * UNIT;
+        this.unitsPerMilli = ratePerMinute * (double) UNIT / 60_000;
+        this.fullRefillMillis = (long) Math.ceil(capacityUnits / unitsPerMilli);
+    }
+
+    /**
+     * Создает ограничитель по параметрам из config.env
+     * @param config конфигурация бота
+     * @return ограничитель или null, если INBOUND_CHAT_RATE_PER_MINUTE = 0
+     */
+    public static InboundLimiter fromConfig(BotConfig config) {
+        int ratePerMinute = config.getInt("INBOUND_CHAT_RATE_PER_MINUTE", 60);
+        if (ratePerMinute <= 0) {
+            return null;
+        }
+        return new InboundLimiter(ratePerMinute,
+                config.getInt("INBOUND_CHAT_BURST", 10),
+                config.getInt("INBOUND_TABLE_SIZE", 1 << 18));
+    }
+
+    /**
+     * Учесть входящее обновление чата
+     * @param chatId идентификатор чата
+     * @return решение: принять, отклонить с уведомлением или отклонить молча
+     */
+    public Decision tryAcquire(long chatId) {
+        // Время отсчитывается с 1, чтобы упакованное состояние никогда не совпало с нулевым
+        return tryAcquire(chatId, (System.nanoTime() - baseNanos) / 1_000_000 + 1);
+    }
+
+    Decision tryAcquire(long chatId, long nowMillis) {
+        int start = (int) LongSessionMap.mix(chatId) & mask;
+        int victim = -1;
+        long victimTime = Long.MAX_VALUE;
+        for (int probe = 0; probe < MAX_PROBE; probe++) {
+            int slot = (start + probe) & mask;
+            long key = table.get(slot * 2);
+            if (key == EMPTY) {
+                if (table.compareAndSet(slot * 2, EMPTY, chatId) || table.get(slot * 2) == chatId) {
+                    return consume(slot, nowMillis);
+                }
+                key = table.get(slot * 2);
+            }
+            if (key == chatId) {
+                return consume(slot, nowMillis);
+            }
+            // Запоминаем ячейку с самым давним пополнением: ее займет чат, если он не найден
+            long state = table.get(slot * 2 + 1);
+            // Состояние 0 у только что занятой ячейки: ее чат активен, занимать ее - в последнюю очередь
+            long time = state == 0 ? Long.MAX_VALUE - 1 : state >>> TIME_SHIFT;
+            if (time < victimTime) {
+                victim = slot;
+                victimTime = time;
+            }
+        }
+
+        // Чат не найден: занимаем устаревшую или самую давнюю запись
+        long victimKey = table.get(victim * 2);
+        if (victimKey != chatId && !table.compareAndSet(victim * 2, victimKey, chatId)) {
+            // Ячейку одновременно занял другой чат; обновление без учета не отклоняется
+            return Decision.ADMIT;
+        }
+        table.set(victim * 2 + 1, 0);
+        return consume(victim, nowMillis);
+    }
+
+    private Decision consume(int slot, long nowMillis) {
+        int index = slot * 2 + 1;
+        while (true) {
+            long state = table.get(index);
+            long last;
+            long units;
+            long notified;
+            if (state == 0 || nowMillis - (state >>> TIME_SHIFT) >= fullRefillMillis) {
+                last = nowMillis;
+                units = capacityUnits;
+                notified = 0;
+            } else {
+                last = state >>> TIME_SHIFT;
+                units = (state >>> 1) & MAX_UNITS;
+                notified = state & NOTIFIED;
+                // Время переносится вперед только вместе с пополнением, иначе частые обращения
+                // теряли бы дробные доли токена
+                long added = (long) (Math.max(0, nowMillis - last) * unitsPerMilli);
+                if (added > 0) {
+                    units = Math.min(capacityUnits, units + added);
+                    last = nowMillis;
+                }
+            }
+
+            Decision decision;
+            long next;
+            if (units >= UNIT) {
+                decision = Decision.ADMIT;
+                next = pack(last, units - UNIT, 0);
+            } else if (notified == 0) {
+                decision = Decision.REJECT_NOTIFY;
+                next = pack(last, units, NOTIFIED);
+            } else {
+                return Decision.REJECT;
+            }
+            if (table.compareAndSet(index, state, next)) {
+                return decision;
+            }
+        }
+    }
+
+    private static long pack(long timeMillis, long units, long notified) {
+        return (timeMillis << TIME_SHIFT) | (units << 1) | notified;
+    }
+}
@@ -0,0 +1,168 @@
+package org.example;
+
+/**
+ * Хеш-таблица chatId -> сессия с открытой адресацией и примитивными ключами.
+ * Не создает объектов-оберток на каждую запись (ни Long, ни узлов как в HashMap).
+ * Не потокобезопасна: синхронизация выполняется вызывающим кодом.
+ */
+public final class LongSessionMap {
+    private static final int MIN_CAPACITY = 16;
+
+    // Ключи и значения; слот свободен, если values[i] == null
+    private long[] keys;
+    private DiagnosisSession[] values;
+    private int mask;
+    private int size;
+
+    public LongSessionMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Перемешивает биты chatId для равномерного распределения по слотам
+     * @param key идентификатор чата
+     * @return хеш ключа
+     */
+    static long mix(long key) {
+        // Финализатор MurmurHash3 (fmix64)
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return key;
+    }
+
+    /**
+     * @param key идентификатор чата
+     * @return сессия или null
+     */
+    public DiagnosisSession get(long key) {
+        int slot = (int) mix(key) & mask;
+        DiagnosisSession value;
+        while ((value = values[slot]) != null) {
+            if (keys[slot] == key) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @param key идентификатор чата
+     * @param value сессия (не null)
+     * @return предыдущая сессия или null
+     */
+    public DiagnosisSession put(long key, DiagnosisSession value) {
+        int slot = (int) mix(key) & mask;
+        DiagnosisSession existing;
+        while ((existing = values[slot]) != null) {
+            if (keys[slot] == key) {
+                values[slot] = value;
+                return existing;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        // Заполненность не выше 1/2 сохраняет короткие цепочки пробирования
+        if (++size > (mask + 1) >>> 1) {
+            rehash((mask + 1) << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @param key идентификатор чата
+     * @return удаленная сессия или null
+     */
+    public DiagnosisSession remove(long key) {
+        int slot = (int) mix(key) & mask;
+        DiagnosisSession value;
+        while ((value = values[slot]) != null) {
+            if (keys[slot] == key) {
+                removeSlot(slot);
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * @return количество записей
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return число слотов таблицы (для обхода через keyAt/valueAt)
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @param slot номер слота
+     * @return ключ в слоте (имеет смысл, только если valueAt(slot) != null)
+     */
+    public long keyAt(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * @param slot номер слота
+     * @return сессия в слоте или null, если слот свободен
+     */
+    public DiagnosisSession valueAt(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * Удаление со сдвигом последующих записей цепочки назад (без "надгробий")
+     */
+    private void removeSlot(int slot) {
+        int gap = slot;
+        int next = (gap + 1) & mask;
+        while (values[next] != null) {
+            int home = (int) mix(keys[next]) & mask;
+            // Запись можно перенести в дырку, если дырка лежит между ее домашним слотом и текущим
+            if (((next - home) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                gap = next;
+            }
+            next = (next + 1) & mask;
+        }
+        values[gap] = null;
+        size--;
+        // Сжимаем таблицу после массового удаления, чтобы память не оставалась на пике нагрузки
+        if (mask + 1 > MIN_CAPACITY && size < (mask + 1) >>> 3) {
+            rehash((mask + 1) >>> 1);
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        DiagnosisSession[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = (int) mix(oldKeys[i]) & mask;
+                while (values[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new DiagnosisSession[capacity];
+        mask = capacity - 1;
+    }
+}
@@ -1,17 +1,155 @@
 package org.example;
 
 import org.telegram.telegrambots.meta.TelegramBotsApi;
+import org.telegram.telegrambots.meta.api.methods.updates.SetWebhook;
 import org.telegram.telegrambots.updatesreceivers.DefaultBotSession;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
 public class Main {
     public static void main(String[] args) {
+        BotConfig config = BotConfig.load();
+        // --warmup-only - только прогрев и выход (учебный запуск при сборке архива AppCDS, профиль appcds)
+        if (args.length > 0 && "--warmup-only".equals(args[0])) {
+            Warmup.run(config, config.getInt("WARMUP_SESSIONS", 2000));
+            return;
+        }
         try {
-            TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
-            botsApi.registerBot(new MedicalDiagnosisBot());
+            // CLUSTER_ROLE=ingress - входной узел кластера: только пересылка обновлений рабочим узлам
+            String clusterRole = config.get("CLUSTER_ROLE", "standalone");
+            if ("ingress".equalsIgnoreCase(clusterRole)) {
+                startIngress(config);
+                return;
+            }
+            // BOTS=clinic1,clinic2 - несколько ботов в одном процессе с общим каталогом и пулом обработки
+            String bots = config.get("BOTS");
+            if (bots != null) {
+                if (!"standalone".equalsIgnoreCase(clusterRole)) {
+                    throw new IllegalStateException("BOTS не поддерживается вместе с CLUSTER_ROLE=" + clusterRole);
+                }
+                startBots(config, bots);
+                return;
+            }
+            // Прогрев до регистрации в Telegram: первые пользователи не ждут загрузки классов и JIT
+            Warmup.runFromConfig(config);
+            MedicalDiagnosisBot bot = new MedicalDiagnosisBot(config);
+            // METRICS_PORT - выгрузка метрик в формате Prometheus
+            MetricsServer metricsServer = MetricsServer.fromConfig(bot.getMetrics(), config);
+            if (metricsServer != null) {
+                metricsServer.start();
+            }
+            // CLUSTER_ROLE=worker - рабочий узел: обновления приходят от входного узла
+            if ("worker".equalsIgnoreCase(clusterRole)) {
+                startWorker(bot, config);
+            } else if ("webhook".equalsIgnoreCase(config.get("BOT_MODE", "polling"))) {
+                // BOT_MODE=webhook - прием обновлений встроенным HTTP-сервером, иначе long polling
+                startWebhook(bot, config);
+            } else {
+                TelegramBotsApi botsApi = new TelegramBotsApi(DefaultBotSession.class);
+                botsApi.registerBot(bot);
+            }
             System.out.println("Бот успешно запущен!");
-        } catch (TelegramApiException e) {
+        } catch (TelegramApiException | IOException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Запускает несколько ботов с общими каталогом тестов, пулом обработки и реестром метрик.
+     * Параметры бота берутся с префиксом его идентификатора ({@link BotConfig#forBot}),
+     * например CLINIC1_BOT_TOKEN; в режиме webhook каждому боту нужен свой WEBHOOK_PORT.
+     */
+    private static void startBots(BotConfig config, String bots) throws IOException, TelegramApiException {
+        List<String> botIds = Arrays.stream(bots.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .collect(Collectors.toList());
+        if (botIds.isEmpty()) {
+            throw new IllegalStateException("Список BOTS пуст");
+        }
+        Warmup.runFromConfig(config);
+        BotHost host = new BotHost(config);
+        MetricsServer metricsServer = MetricsServer.fromConfig(host.getMetrics(), config);
+        if (metricsServer != null) {
+            metricsServer.start();
+        }
+
+        TelegramBotsApi botsApi = null;
+        for (String botId : botIds) {
+            BotConfig botConfig = config.forBot(botId);
+            MedicalDiagnosisBot bot = new MedicalDiagnosisBot(botConfig, host, botId);
+            if ("webhook".equalsIgnoreCase(botConfig.get("BOT_MODE", "polling"))) {
+                startWebhook(bot, botConfig);
+            } else {
+                if (botsApi == null) {
+                    botsApi = new TelegramBotsApi(DefaultBotSession.class);
+                }
+                botsApi.registerBot(bot);
+            }
+        }
+        System.out.println("Запущено ботов: " + botIds.size());
+    }
+
+    /**
+     * Запускает webhook-сервер и, если задан WEBHOOK_URL, регистрирует его в Telegram.
+     * Без WEBHOOK_URL сервер работает локально (например, для отправки Update через curl).
+     */
+    private static void startWebhook(MedicalDiagnosisBot bot, BotConfig config)
+            throws IOException, TelegramApiException {
+        WebhookServer server = WebhookServer.fromConfig(bot, config);
+        server.start();
+        registerWebhook(bot, config);
+    }
+
+    /**
+     * Запускает входной узел кластера. Бот на этом узле не создается: webhook в Telegram
+     * регистрируют рабочие узлы, указывая в WEBHOOK_URL адрес входного узла.
+     */
+    private static void startIngress(BotConfig config) throws IOException {
+        BotMetrics metrics = new BotMetrics();
+        MetricsServer metricsServer = MetricsServer.fromConfig(metrics, config);
+        if (metricsServer != null) {
+            metricsServer.start();
+        }
+        ClusterIngress ingress = ClusterIngress.fromConfig(config, metrics);
+        if (ingress == null) {
+            throw new IllegalStateException("Для CLUSTER_ROLE=ingress не указан CLUSTER_WORKERS в config.env");
+        }
+        ingress.start();
+        System.out.println("Входной узел кластера запущен!");
+    }
+
+    /**
+     * Запускает рабочий узел кластера. При остановке процесса узел передает свои сессии
+     * оставшимся участникам.
+     */
+    private static void startWorker(MedicalDiagnosisBot bot, BotConfig config)
+            throws IOException, TelegramApiException {
+        ClusterWorker worker = ClusterWorker.fromConfig(bot, config);
+        if (worker == null) {
+            throw new IllegalStateException("Для CLUSTER_ROLE=worker не указан CLUSTER_NODE_ID в config.env");
+        }
+        worker.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            worker.close();
+            bot.onClosing();
+        }, "cluster-shutdown"));
+        registerWebhook(bot, config);
+    }
+
+    /**
+     * Регистрирует webhook в Telegram, если задан WEBHOOK_URL
+     */
+    private static void registerWebhook(MedicalDiagnosisBot bot, BotConfig config) throws TelegramApiException {
+        String url = config.get("WEBHOOK_URL");
+        if (url != null) {
+            SetWebhook setWebhook = new SetWebhook(url);
+            setWebhook.setSecretToken(config.get("WEBHOOK_SECRET"));
+            bot.execute(setWebhook);
+        }
+    }
 }
@@ -1,19 +1,24 @@
 package org.example;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import io.github.cdimascio.dotenv.Dotenv;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.telegram.telegrambots.bots.TelegramLongPollingBot;
+import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
 import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.CallbackQuery;
 import org.telegram.telegrambots.meta.api.objects.Update;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.InlineKeyboardMarkup;
+import org.telegram.telegrambots.meta.api.objects.replykeyboard.buttons.InlineKeyboardButton;
 import org.telegram.telegrambots.meta.api.objects.replykeyboard.ReplyKeyboardRemove;
 import org.telegram.telegrambots.meta.exceptions.TelegramApiException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongPredicate;
+import java.util.function.ObjLongConsumer;
 
 /**
  * Основной класс Telegram-бота для медицинской диагностики.
@@ -23,15 +28,75 @@ public class MedicalDiagnosisBot extends TelegramLongPollingBot {
     // Логгер для записи событий
     private final Logger logger = LoggerFactory.getLogger(MedicalDiagnosisBot.class);
 
+    // Разметка для удаления клавиатуры; не изменяется, поэтому используется всеми сообщениями
+    private static final ReplyKeyboardRemove REMOVE_KEYBOARD = new ReplyKeyboardRemove(true);
+
     // Учетные данные бота из переменных окружения
     private final String botToken;
     private final String botUsername;
 
-    // Активные сессии пользователей (chatId -> сессия)
-    private Map<String, DiagnosisSession> userSessions = new HashMap<>();
+    // Активные сессии пользователей (числовой chatId -> сессия)
+    private final SessionStore userSessions;
+
+    // Общие ресурсы (каталог тестов, пул обработки, метрики); hostOwner - созданы этим ботом
+    private final BotHost host;
+    private final boolean hostOwner;
+
+    // Последовательная обработка сообщений внутри чата, параллельная между чатами
+    private final UpdateDispatcher.Tenant dispatcher;
+
+    // Отсеивание повторно доставленных обновлений по update_id
+    private final UpdateDeduplicator deduplicator;
+
+    // Ограничение частоты входящих обновлений по чатам (null - отключено)
+    private final InboundLimiter inboundLimiter;
+
+    // OVERLOAD_POLICY=busy - при переполнении очереди отвечать "бот перегружен", drop - молча отбрасывать
+    private final boolean busyReplies;
+
+    // Асинхронная отправка ответов с ограничением частоты
+    private final OutboundSender outbound;
+
+    // Транспорт для вызовов, не проходящих через очередь отправки (подтверждения нажатий кнопок)
+    private final MessageTransport transport;
+
+    // ANSWER_MODE=inline - ответы кнопками inline-клавиатуры без хранения сессии на сервере
+    private final boolean inlineAnswers;
+
+    // Журнал сессий для восстановления после перезапуска (null - отключен)
+    private final SessionJournal journal;
+
+    // Запись результатов завершенных тестов для аудита (null - отключена)
+    private final ResultSink results;
+
+    // Последние результаты по чатам для команды /history (null - отключена)
+    private final ScreeningHistory history;
+
+    // Статистика завершенных тестов для команды /stats
+    private final ScreeningStats stats = new ScreeningStats();
+
+    // Чаты администраторов, которым доступна команда /stats (отсортированы)
+    private final long[] adminChatIds;
+
+    // Метрики бота; объекты горячего пути получены заранее
+    private final BotMetrics metrics;
+    private final LatencyHistogram startLatency;
+    private final LatencyHistogram helpLatency;
+    private final Map<String, LatencyHistogram> testLatency = new ConcurrentHashMap<>();
+    private final LatencyHistogram cancelLatency;
+    private final LatencyHistogram statsLatency;
+    private final LatencyHistogram historyLatency;
+    private final LatencyHistogram answerLatency;
+    private final LatencyHistogram callbackLatency;
+    private final LongAdder parseFailures;
+    private final LongAdder batchAnswers;
+    private final LongAdder duplicateUpdates;
+    private final LongAdder throttledUpdates;
+    private final LongAdder shedActive;
+    private final LongAdder shedNew;
 
-    // Доступные диагностические тесты
-    private final List<DiagnosticTest> availableTests;
+    // Счетчики завершений по тестам и интервалам диагноза текущей версии каталога
+    private volatile CompletionCounters completionCounters;
 
     /**
      * Конструктор бота. Инициализирует:
@@ -40,14 +105,45 @@ public class MedicalDiagnosisBot extends TelegramLongPollingBot {
      */
     public MedicalDiagnosisBot() {
         // Загрузка конфигурации из файла .env
-        Dotenv dotenv = Dotenv.configure()
-                .filename("config.env")
-                .ignoreIfMissing()
-                .load();
+        this(BotConfig.load());
+    }
+
+    /**
+     * Конструктор бота с заданной конфигурацией.
+     * @param config параметры из config.env
+     */
+    public MedicalDiagnosisBot(BotConfig config) {
+        this(config, null);
+    }
+
+    /**
+     * Конструктор бота с заменяемым транспортом отправки (для бенчмарков и локальных прогонов).
+     * @param config параметры из config.env
+     * @param transport транспорт отправки; null - Telegram API
+     */
+    MedicalDiagnosisBot(BotConfig config, MessageTransport transport) {
+        this(config, transport, new BotHost(config), null);
+    }
 
-        this.botToken = dotenv.get("BOT_TOKEN");
-        this.botUsername = dotenv.get("BOT_USERNAME");
-        this.userSessions = new HashMap<>();
+    /**
+     * Конструктор одного из ботов процесса, разделяющих каталог тестов, пул обработки и метрики.
+     * @param config конфигурация бота ({@link BotConfig#forBot})
+     * @param host общие ресурсы ботов
+     * @param botId идентификатор бота (значение метки bot в метриках)
+     */
+    public MedicalDiagnosisBot(BotConfig config, BotHost host, String botId) {
+        this(config, null, host, botId);
+    }
+
+    /**
+     * @param config параметры бота
+     * @param transport транспорт отправки; null - Telegram API
+     * @param host общие ресурсы ботов
+     * @param botId идентификатор бота; null - единственный бот процесса, владеющий host
+     */
+    MedicalDiagnosisBot(BotConfig config, MessageTransport transport, BotHost host, String botId) {
+        this.botToken = config.get("BOT_TOKEN");
+        this.botUsername = config.get("BOT_USERNAME");
 
         // Проверка обязательных параметров
         if (botToken == null || botUsername == null) {
@@ -55,139 +151,554 @@ public class MedicalDiagnosisBot extends TelegramLongPollingBot {
             throw new RuntimeException("Не указаны BOT_TOKEN или BOT_USERNAME в config.env!");
         }
 
+        this.host = host;
+        this.hostOwner = botId == null;
+        this.metrics = hostOwner ? host.getMetrics() : host.getMetrics().withLabels("bot", botId);
+        this.startLatency = commandLatency("/start");
+        this.helpLatency = commandLatency("/help");
+        this.cancelLatency = commandLatency("/cancel");
+        this.statsLatency = commandLatency("/stats");
+        this.historyLatency = commandLatency("/history");
+        this.answerLatency = commandLatency("answer");
+        this.callbackLatency = commandLatency("callback");
+        this.parseFailures = metrics.counter("bot_parse_failures_total",
+                "Ответы, которые не удалось разобрать как номер варианта");
+        this.batchAnswers = metrics.counter("bot_batch_answers_total",
+                "Тесты, пройденные одним сообщением с баллами всех параметров");
+
+        this.duplicateUpdates = metrics.counter("bot_updates_duplicate_total",
+                "Повторно доставленные обновления, отброшенные по update_id");
+        this.throttledUpdates = metrics.counter("bot_updates_throttled_total",
+                "Обновления, отклоненные из-за превышения частоты сообщений чата");
+        this.shedActive = metrics.counter("bot_updates_shed_total",
+                "Обновления, отклоненные из-за переполнения очереди", "class", "active");
+        this.shedNew = metrics.counter("bot_updates_shed_total",
+                "Обновления, отклоненные из-за переполнения очереди", "class", "new");
+
+        this.adminChatIds = parseChatIds(config.get("ADMIN_CHAT_IDS", ""));
+
+        // Брошенные сессии удаляются после SESSION_IDLE_TTL_MINUTES простоя
+        this.userSessions = new ConcurrentSessionStore(
+                TimeUnit.MINUTES.toMillis(config.getLong("SESSION_IDLE_TTL_MINUTES", 60)),
+                config.getInt("SESSION_MAX_COUNT", 100_000),
+                TimeUnit.SECONDS.toMillis(config.getLong("SESSION_SWEEP_INTERVAL_SECONDS", 60)),
+                this::onSessionEvicted);
+        this.dispatcher = host.getDispatcher().newTenant();
+        this.deduplicator = new UpdateDeduplicator(config.getInt("DEDUP_WINDOW", 65536));
+        this.inboundLimiter = InboundLimiter.fromConfig(config);
+        this.busyReplies = !"drop".equalsIgnoreCase(config.get("OVERLOAD_POLICY", "busy"));
+        this.transport = transport != null ? transport : new TelegramTransport();
+        this.outbound = OutboundSender.fromConfig(this.transport, config, metrics);
+        this.inlineAnswers = "inline".equalsIgnoreCase(config.get("ANSWER_MODE", "text"));
+        metrics.gauge("bot_active_sessions", "Незавершенные сессии тестов", userSessions::size);
+        logger.info("Бот {} успешно инициализирован, загружено тестов: {}", botUsername,
+                host.getCatalog().getTests().size());
+
+        // Восстановление незавершенных сессий (если задан JOURNAL_DIR)
+        this.journal = SessionJournal.fromConfig(config);
+        if (journal != null) {
+            try {
+                journal.recover(host.getCatalog(), userSessions);
+            } catch (IOException e) {
+                logger.error("Ошибка восстановления сессий из журнала", e);
+                throw new RuntimeException("Ошибка восстановления сессий из журнала", e);
+            }
+        }
+        // История результатов по чатам (HISTORY_SIZE = 0 - отключена)
         try {
-            // Загрузка тестов из JSON-файла
-            this.availableTests = loadTests("/tests_config.json");
-            logger.info("Бот успешно инициализирован, загружено тестов: {}", availableTests.size());
+            this.history = ScreeningHistory.fromConfig(config);
         } catch (IOException e) {
-            logger.error("Ошибка загрузки тестов", e);
-            throw new RuntimeException("Ошибка загрузки тестов", e);
+            logger.error("Ошибка открытия файла истории тестов", e);
+            throw new RuntimeException("Ошибка открытия файла истории тестов", e);
+        }
+        if (history != null) {
+            metrics.gauge("bot_history_chats", "Чаты с историей результатов в памяти", history::size);
+        }
+        // Сохранение результатов тестов (если задан RESULTS_DIR)
+        this.results = ResultSink.fromConfig(config, metrics);
+        if (results != null) {
+            try {
+                results.start();
+            } catch (IOException e) {
+                logger.error("Ошибка открытия файла результатов", e);
+                throw new RuntimeException("Ошибка открытия файла результатов", e);
+            }
         }
     }
 
     /**
-     * Загружает тесты из JSON-файла.
-     * Поддерживает два формата:
-     * 1. Прямой массив тестов: [{...}, {...}]
-     * 2. Объект с полем tests: {"tests": [...]}
+     * Записывает в журнал удаление сессии очисткой хранилища (простой или превышение
+     * SESSION_MAX_COUNT), иначе после перезапуска сессия восстановилась бы из журнала
+     * @param chatId идентификатор чата удаленной сессии
      */
-    private List<DiagnosticTest> loadTests(String configPath) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        try (InputStream is = getClass().getResourceAsStream(configPath)) {
-            if (is == null) {
-                throw new IOException("Файл конфигурации не найден: " + configPath);
-            }
+    private void onSessionEvicted(long chatId) {
+        // Очистка может сработать до того, как журнал открыт в конструкторе
+        SessionJournal sessionJournal = journal;
+        if (sessionJournal != null) {
+            sessionJournal.logCancel(chatId);
+        }
+    }
 
-            // Чтение и анализ структуры JSON
-            JsonNode rootNode = mapper.readTree(is);
-
-            if (rootNode.isArray()) {
-                // Формат: массив тестов
-                return mapper.readValue(rootNode.toString(), new TypeReference<List<DiagnosticTest>>() {});
-            } else if (rootNode.has("tests")) {
-                // Формат: объект с полем tests
-                return mapper.readValue(rootNode.get("tests").toString(), new TypeReference<List<DiagnosticTest>>() {});
-            } else {
-                throw new IOException("Неверный формат конфигурационного файла");
-            }
+    /**
+     * Разбирает список идентификаторов чатов через запятую
+     * @param value строка вида "123,456"
+     * @return отсортированный массив идентификаторов
+     * @throws IllegalArgumentException если идентификатор не является числом
+     */
+    private static long[] parseChatIds(String value) {
+        long[] ids = Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(id -> !id.isEmpty())
+                .mapToLong(id -> {
+                    try {
+                        return Long.parseLong(id);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Некорректный идентификатор в ADMIN_CHAT_IDS: " + id, e);
+                    }
+                })
+                .toArray();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private LatencyHistogram commandLatency(String command) {
+        return metrics.histogram("bot_command_latency_seconds",
+                "Время обработки сообщения по командам", "command", command);
+    }
+
+    private LongAdder completionCounter(DiagnosticTest test, String diagnosis) {
+        return metrics.counter("bot_completions_total", "Завершенные тесты по результату",
+                "test", test.getTestName(), "diagnosis", diagnosis);
+    }
+
+    /**
+     * Счетчик завершений для теста и суммы баллов. Счетчики текущей версии каталога получены
+     * заранее и пересоздаются при первом завершении после смены каталога; реестр метрик
+     * опрашивается только для сессий тестов из предыдущей версии.
+     */
+    private LongAdder completionCounter(DiagnosticTest test, int totalScore, String diagnosis) {
+        TestCatalog current = host.getCatalog();
+        CompletionCounters counters = completionCounters;
+        if (counters == null || counters.catalog != current) {
+            counters = new CompletionCounters(current);
+            completionCounters = counters;
+        }
+        LongAdder[] byInterval = counters.byTest.get(test);
+        if (byInterval == null) {
+            return completionCounter(test, diagnosis);
         }
+        int interval = test.getDiagnosisIndex().intervalOf(totalScore);
+        return byInterval[interval >= 0 ? interval : byInterval.length - 1];
+    }
+
+    /**
+     * @return реестр метрик бота
+     */
+    public BotMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Загружает тесты из JSON-файла в classpath (формат описан в {@link TestCatalog#parse}).
+     */
+    static List<DiagnosticTest> loadTests(String configPath) throws IOException {
+        return TestCatalog.fromResource(configPath).getTests();
     }
 
     /**
-     * Основной обработчик входящих сообщений.
-     * Игнорирует сообщения без текста.
+     * Основной обработчик входящих сообщений (режим long polling).
+     * Ответ ставится в очередь асинхронной отправки.
      */
     @Override
     public void onUpdateReceived(Update update) {
-        if (!update.hasMessage() || !update.getMessage().hasText()) {
-            return;
+        dispatch(update, this::enqueueReply);
+    }
+
+    /**
+     * Передает обновление в очередь обработки его чата.
+     * Обрабатываются текстовые сообщения и нажатия кнопок inline-клавиатуры, остальное игнорируется.
+     * Повторно доставленные обновления (тот же update_id) отбрасываются, чтобы повтор ответа
+     * не перевел сессию через вопрос, а обновления чатов, превысивших лимит частоты, - до обращения
+     * к сессиям и логированию. Обработка выполняется в диспетчере, чтобы медленный вызов
+     * Telegram API в одном чате не задерживал другие; сообщения чатов с начатой сессией и нажатия
+     * кнопок имеют приоритет перед новыми обращениями.
+     * @param update входящее обновление
+     * @param replyHandler получатель ответа и chatId; вызывается в потоке диспетчера,
+     *                     а ответ о перегрузке - в вызывающем потоке
+     * @return true, если обновление принято в обработку или на него дан ответ о перегрузке
+     * либо о превышении частоты
+     */
+    boolean dispatch(Update update, ObjLongConsumer<SendMessage> replyHandler) {
+        long chatId;
+        Runnable task;
+        boolean active;
+        if (update.hasMessage() && update.getMessage().hasText()) {
+            chatId = update.getMessage().getChatId();
+            String messageText = update.getMessage().getText();
+            task = () -> replyHandler.accept(processMessage(chatId, messageText), chatId);
+            // Наличие сессии проверяется после ограничения частоты
+            active = false;
+        } else if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            CallbackQuery callback = update.getCallbackQuery();
+            chatId = callback.getMessage().getChatId();
+            task = () -> {
+                answerCallback(callback.getId());
+                replyHandler.accept(processCallback(chatId, callback.getData()), chatId);
+            };
+            // Нажатие кнопки - всегда продолжение теста
+            active = true;
+        } else {
+            return false;
         }
 
-        String chatId = update.getMessage().getChatId().toString();
-        String messageText = update.getMessage().getText();
+        Integer updateId = update.getUpdateId();
+        if (updateId != null && !deduplicator.markSeen(updateId)) {
+            duplicateUpdates.increment();
+            logger.debug("Повторное обновление {} от {} отброшено", updateId, chatId);
+            return false;
+        }
 
-        try {
-            SendMessage response = processMessage(chatId, messageText);
-            execute(response);
-        } catch (TelegramApiException e) {
-            logger.error("Ошибка при обработке сообщения: {}", messageText, e);
+        // Чат сверх лимита получает одно предупреждение, остальные его обновления отбрасываются
+        // без обработки и без записи в лог
+        if (inboundLimiter != null) {
+            InboundLimiter.Decision decision = inboundLimiter.tryAcquire(chatId);
+            if (decision != InboundLimiter.Decision.ADMIT) {
+                throttledUpdates.increment();
+                if (decision == InboundLimiter.Decision.REJECT_NOTIFY) {
+                    replyHandler.accept(createMessage(chatId,
+                            "Слишком много сообщений. Подождите немного и повторите"), chatId);
+                    return true;
+                }
+                return false;
+            }
+        }
+
+        active = active || userSessions.get(chatId) != null;
+        if (!dispatcher.submit(chatId, task, active)) {
+            (active ? shedActive : shedNew).increment();
+            logger.warn("Очередь обработки переполнена, сообщение от {} отклонено", chatId);
+            if (busyReplies) {
+                replyHandler.accept(createMessage(chatId, "Бот сейчас перегружен, повторите попытку через минуту"),
+                        chatId);
+                return true;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Определяет чат, к которому относится обновление
+     * @param update входящее обновление
+     * @return идентификатор чата или null, если бот такие обновления не обрабатывает
+     */
+    static Long chatIdOf(Update update) {
+        if (update.hasMessage() && update.getMessage().hasText()) {
+            return update.getMessage().getChatId();
+        }
+        if (update.hasCallbackQuery() && update.getCallbackQuery().getMessage() != null) {
+            return update.getCallbackQuery().getMessage().getChatId();
+        }
+        return null;
+    }
+
+    /**
+     * Снимает с узла сессии выбранных чатов для передачи другому узлу кластера.
+     * Сессия удаляется задачей в очереди своего чата: обновления, принятые раньше,
+     * успевают обработаться, а следующие уже не найдут сессию на этом узле.
+     * @param release фильтр передаваемых чатов
+     * @return снятые сессии (chatId -> сессия); завершается, когда очереди чатов дошли до передачи
+     */
+    CompletableFuture<Map<Long, DiagnosisSession>> releaseSessions(LongPredicate release) {
+        List<Long> chatIds = new ArrayList<>();
+        userSessions.forEach((session, chatId) -> {
+            if (release.test(chatId)) {
+                chatIds.add(chatId);
+            }
+        });
+        Map<Long, DiagnosisSession> released = new ConcurrentHashMap<>();
+        CompletableFuture<?>[] removals = new CompletableFuture<?>[chatIds.size()];
+        for (int i = 0; i < removals.length; i++) {
+            long chatId = chatIds.get(i);
+            CompletableFuture<Void> removal = new CompletableFuture<>();
+            removals[i] = removal;
+            if (!dispatcher.submit(chatId, () -> {
+                try {
+                    DiagnosisSession session = userSessions.remove(chatId);
+                    if (session != null) {
+                        if (journal != null) {
+                            journal.logCancel(chatId);
+                        }
+                        released.put(chatId, session);
+                    }
+                } finally {
+                    removal.complete(null);
+                }
+            })) {
+                logger.warn("Очередь обработки переполнена, сессия {} остается на узле", chatId);
+                removal.complete(null);
+            }
+        }
+        return CompletableFuture.allOf(removals).thenApply(done -> released);
+    }
+
+    /**
+     * Принимает сессию, переданную другим узлом кластера.
+     * Сессия сохраняется в очереди своего чата и записывается в журнал как начатый тест с ответами.
+     * @param chatId идентификатор чата
+     * @param session принятая сессия
+     * @return false, если очередь чата переполнена и сессия не принята
+     */
+    boolean adoptSession(long chatId, DiagnosisSession session) {
+        return dispatcher.submit(chatId, () -> {
+            DiagnosisSession existing = userSessions.get(chatId);
+            if (existing != null && existing.getStartedMillis() > session.getStartedMillis()) {
+                // Пользователь уже начал новый тест на этом узле: переданная сессия устарела
+                logger.info("Переданная сессия {} старее текущей и отброшена", chatId);
+                return;
+            }
+            userSessions.put(chatId, session);
+            if (journal != null) {
+                journal.logStart(chatId, session.getTest());
+                for (int q = 0; q < session.getTotalQuestions(); q++) {
+                    int answer = session.getAnswerIndex(q);
+                    if (answer >= 0) {
+                        journal.logAnswer(chatId, q, answer);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return текущая версия каталога тестов
+     */
+    TestCatalog getCatalog() {
+        return host.getCatalog();
+    }
+
+    /**
+     * @return число незавершенных сессий
+     */
+    int getSessionCount() {
+        return userSessions.size();
+    }
+
+    /**
+     * Ставит ответ в очередь асинхронной отправки.
+     * @param reply сообщение для отправки
+     * @param chatId идентификатор чата
+     */
+    void enqueueReply(SendMessage reply, long chatId) {
+        outbound.enqueue(chatId, reply);
+    }
+
+    /**
+     * Подтверждает нажатие кнопки, чтобы у пользователя пропал индикатор загрузки.
+     */
+    private void answerCallback(String callbackQueryId) {
+        AnswerCallbackQuery answer = new AnswerCallbackQuery();
+        answer.setCallbackQueryId(callbackQueryId);
+        transport.answerCallback(answer).whenComplete((result, error) -> {
+            if (error != null) {
+                logger.warn("Не удалось подтвердить нажатие кнопки: {}", error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Счетчики bot_completions_total одной версии каталога: для каждого теста по счетчику на интервал
+     * правил интерпретации ({@link ScoreIntervalIndex}) и последний - для суммы вне интервалов.
+     */
+    private final class CompletionCounters {
+        private final TestCatalog catalog;
+        private final Map<DiagnosticTest, LongAdder[]> byTest = new IdentityHashMap<>();
+
+        private CompletionCounters(TestCatalog catalog) {
+            this.catalog = catalog;
+            for (DiagnosticTest test : catalog.getTests()) {
+                ScoreIntervalIndex index = test.getDiagnosisIndex();
+                LongAdder[] counters = new LongAdder[index.getIntervalCount() + 1];
+                for (int k = 0; k < index.getIntervalCount(); k++) {
+                    counters[k] = completionCounter(test, index.getDiagnosis(k));
+                }
+                counters[counters.length - 1] = completionCounter(test, DiagnosticTest.UNKNOWN_DIAGNOSIS);
+                byTest.put(test, counters);
+            }
+        }
+    }
+
+    /**
+     * Транспорт через Telegram API: асинхронные вызовы executeAsync.
+     */
+    private final class TelegramTransport implements MessageTransport {
+        @Override
+        public CompletableFuture<?> send(SendMessage message) {
+            try {
+                return executeAsync(message);
+            } catch (TelegramApiException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<?> answerCallback(AnswerCallbackQuery answer) {
+            try {
+                return executeAsync(answer);
+            } catch (TelegramApiException e) {
+                return CompletableFuture.failedFuture(e);
+            }
         }
     }
 
     /**
      * Маршрутизатор команд. Определяет тип сообщения и вызывает соответствующий обработчик.
+     * Команды тестов ищутся в хеш-индексе текущей версии каталога.
      */
-    private SendMessage processMessage(String chatId, String message) {
+    SendMessage processMessage(long chatId, String message) {
         logger.debug("Обработка сообщения от {}: {}", chatId, message);
 
+        long started = System.nanoTime();
+        TestCatalog current = host.getCatalog();
+        SendMessage reply;
+        LatencyHistogram latency;
         switch (message) {
             case "/start":
-                return createMessage(chatId, "Добро пожаловать в медицинский диагностический бот!\n\n" +
-                        "Используйте команды:\n" +
-                        "/glasgow - Тест Глазго (оценка уровня сознания)\n" +
-                        "/help - Показать справку\n" +
-                        "/cancel - Отменить текущий тест");
+                reply = createMessage(chatId, current.getStartText(history != null));
+                latency = startLatency;
+                break;
             case "/help":
-                return helpCommand(chatId);
-            case "/glasgow":
-                return startGlasgowTest(chatId);
+                reply = helpCommand(chatId, current);
+                latency = helpLatency;
+                break;
             case "/cancel":
-                return cancelSession(chatId);
+                reply = cancelSession(chatId);
+                latency = cancelLatency;
+                break;
+            case "/stats":
+                reply = statsCommand(chatId);
+                latency = statsLatency;
+                break;
+            case "/history":
+                reply = historyCommand(chatId, current);
+                latency = historyLatency;
+                break;
             default:
-                return handleUserResponse(chatId, message);
+                DiagnosticTest test = current.findByCommand(message);
+                if (test != null) {
+                    reply = startTest(chatId, test);
+                    latency = testLatency.computeIfAbsent(message, this::commandLatency);
+                    break;
+                }
+                // Команда теста с баллами всех параметров: "/glasgow 4 5 6"
+                int space = message.indexOf(' ');
+                if (space > 0 && message.charAt(0) == '/') {
+                    String command = message.substring(0, space);
+                    test = current.findByCommand(command);
+                    if (test != null) {
+                        reply = batchTest(chatId, test, message.substring(space + 1));
+                        latency = testLatency.computeIfAbsent(command, this::commandLatency);
+                        break;
+                    }
+                }
+                reply = handleUserResponse(chatId, message);
+                latency = answerLatency;
+                break;
         }
+        latency.recordSince(started);
+        return reply;
     }
 
     /**
      * Отправляет пользователю справку по командам бота.
      */
-    private SendMessage helpCommand(String chatId) {
+    private SendMessage helpCommand(long chatId, TestCatalog current) {
         logger.debug("Запрос справки от {}", chatId);
-        return createMessage(chatId,
-                "Справка по боту:\n\n" +
-                        "Этот бот позволяет пройти медицинские диагностические тесты.\n\n" +
-                        "Доступные команды:\n" +
-                        "/glasgow - Тест Глазго (оценка уровня сознания)\n" +
-                        "/help - Показать эту справку\n" +
-                        "/cancel - Отменить текущий тест\n\n" +
-                        "Во время прохождения теста просто вводите номер выбранного ответа.");
+        return createMessage(chatId, current.getHelpText(history != null));
     }
 
     /**
-     * Начинает новый тест Глазго для пользователя.
-     * Создает новую сессию и задает первый вопрос.
+     * Отправляет администратору статистику завершенных тестов.
      */
-    private SendMessage startGlasgowTest(String chatId) {
-        logger.info("Начало теста Глазго для {}", chatId);
-        try {
-            // Поиск теста Глазго среди доступных
-            DiagnosticTest glasgowTest = availableTests.stream()
-                    .filter(t -> t.getTestName().contains("Глазго"))
-                    .findFirst()
-                    .orElse(null);
-
-            if (glasgowTest == null) {
-                logger.error("Тест Глазго не найден в конфигурации");
-                return createMessage(chatId, "Тест временно недоступен");
-            }
+    private SendMessage statsCommand(long chatId) {
+        if (Arrays.binarySearch(adminChatIds, chatId) < 0) {
+            logger.warn("Запрос статистики от чата без прав администратора: {}", chatId);
+            return createMessage(chatId, "Команда доступна только администраторам");
+        }
+        return createMessage(chatId, stats.report());
+    }
 
-            // Создание и сохранение сессии
-            DiagnosisSession session = new DiagnosisSession(glasgowTest);
+    /**
+     * Отправляет пользователю его последние результаты с динамикой по каждому тесту.
+     */
+    private SendMessage historyCommand(long chatId, TestCatalog current) {
+        if (history == null) {
+            return createMessage(chatId, "История результатов отключена");
+        }
+        return createMessage(chatId, history.render(chatId, current));
+    }
+
+    /**
+     * Начинает новый тест для пользователя.
+     * Создает новую сессию и задает первый вопрос. В режиме inline-клавиатуры
+     * сессия не создается: состояние теста передается в данных кнопок.
+     */
+    private SendMessage startTest(long chatId, DiagnosticTest test) {
+        logger.info("Начало теста \"{}\" для {}", test.getTestName(), chatId);
+        if (inlineAnswers && CallbackAnswer.supports(test)) {
+            return inlineQuestion(chatId, test, new byte[0]);
+        }
+        try {
+            // Создание сессии; в хранилище она попадает уже с заданным первым вопросом,
+            // чтобы параллельный ответ не увидел ее в промежуточном состоянии
+            DiagnosisSession session = new DiagnosisSession(test);
+            SendMessage question = askNextQuestion(chatId, session);
             userSessions.put(chatId, session);
+            if (journal != null) {
+                journal.logStart(chatId, test);
+            }
             logger.debug("Создана новая сессия для {}", chatId);
 
-            return askNextQuestion(chatId, session);
+            return question;
         } catch (Exception e) {
-            logger.error("Ошибка при старте теста Глазго", e);
+            logger.error("Ошибка при старте теста \"{}\"", test.getTestName(), e);
             return createMessage(chatId, "Произошла ошибка при запуске теста");
         }
     }
 
+    /**
+     * Выполняет тест по баллам всех параметров, указанным после команды, без пошагового опроса.
+     * Начатая ранее сессия заменяется, как при обычном запуске теста.
+     */
+    private SendMessage batchTest(long chatId, DiagnosticTest test, String scores) {
+        byte[] answers = BatchAnswer.parse(test, scores);
+        if (answers == null) {
+            parseFailures.increment();
+            logger.warn("Некорректные баллы теста \"{}\" от {}: {}", test.getTestName(), chatId, scores);
+            return createMessage(chatId, batchHint(test));
+        }
+        DiagnosisSession replaced = userSessions.remove(chatId);
+        if (replaced != null && journal != null) {
+            journal.logCancel(chatId);
+        }
+        logger.info("Тест \"{}\" пройден одним сообщением для {}", test.getTestName(), chatId);
+        batchAnswers.increment();
+        return completeTest(chatId, new DiagnosisSession(test, answers.length, answers, System.currentTimeMillis()));
+    }
+
+    /**
+     * Подсказка по вводу баллов всех параметров одним сообщением
+     */
+    private static String batchHint(DiagnosticTest test) {
+        return "Не удалось разобрать баллы. Укажите баллы всех параметров теста в порядке вопросов, "
+                + "например: " + BatchAnswer.example(test);
+    }
+
     /**
      * Формирует сообщение со следующим вопросом теста.
      * Включает номер вопроса, текст вопроса и варианты ответов.
      */
-    private SendMessage askNextQuestion(String chatId, DiagnosisSession session) {
+    private SendMessage askNextQuestion(long chatId, DiagnosisSession session) {
         try {
             DiagnosticQuestion nextQuestion = session.getNextQuestion();
             if (nextQuestion == null) {
@@ -195,30 +706,83 @@ public class MedicalDiagnosisBot extends TelegramLongPollingBot {
                 return createMessage(chatId, "Произошла ошибка: нет вопросов в тесте");
             }
 
-            // Формирование текста сообщения
-            StringBuilder messageText = new StringBuilder();
-            messageText.append("Вопрос ").append(session.getCurrentQuestionNumber())
-                    .append(" из ").append(session.getTotalQuestions()).append(":\n")
-                    .append(nextQuestion.getQuestionText()).append("\n\n");
+            return questionMessage(chatId, session);
+        } catch (Exception e) {
+            logger.error("Ошибка при получении вопроса для {}", chatId, e);
+            return createMessage(chatId, "Произошла ошибка при получении вопроса");
+        }
+    }
 
-            // Добавление вариантов ответов
-            List<String> possibleAnswers = nextQuestion.getPossibleAnswers();
-            for (int i = 0; i < possibleAnswers.size(); i++) {
-                messageText.append(i + 1).append(". ").append(possibleAnswers.get(i)).append("\n");
-            }
+    /**
+     * Формирует сообщение с текущим (только что заданным) вопросом сессии.
+     */
+    private SendMessage questionMessage(long chatId, DiagnosisSession session) {
+        logger.debug("Отправлен вопрос {} для {}", session.getCurrentQuestionNumber(), chatId);
 
-            logger.debug("Отправлен вопрос {} для {}", session.getCurrentQuestionNumber(), chatId);
+        // Создание и настройка сообщения
+        SendMessage message = new SendMessage();
+        message.setChatId(chatId);
+        message.setText(session.getCurrentQuestionPrompt()); // Текст сформирован при загрузке теста
+        message.setReplyMarkup(REMOVE_KEYBOARD);
 
-            // Создание и настройка сообщения
-            SendMessage message = new SendMessage();
-            message.setChatId(chatId);
-            message.setText(messageText.toString());
-            message.setReplyMarkup(new ReplyKeyboardRemove(true)); // Удаление клавиатуры
+        return message;
+    }
 
-            return message;
-        } catch (Exception e) {
-            logger.error("Ошибка при получении вопроса для {}", chatId, e);
-            return createMessage(chatId, "Произошла ошибка при получении вопроса");
+    /**
+     * Формирует вопрос с inline-клавиатурой. Каждая кнопка содержит все предыдущие ответы
+     * и свой вариант, поэтому следующий шаг вычисляется только из данных нажатой кнопки.
+     * @param answers ответы на предыдущие вопросы; их количество - индекс задаваемого вопроса
+     */
+    private SendMessage inlineQuestion(long chatId, DiagnosticTest test, byte[] answers) {
+        int questionIndex = answers.length;
+        DiagnosticQuestion question = test.getQuestion(questionIndex);
+        List<List<InlineKeyboardButton>> rows = new ArrayList<>(question.getAnswerCount());
+        for (int i = 0; i < question.getAnswerCount(); i++) {
+            InlineKeyboardButton button = new InlineKeyboardButton();
+            button.setText((i + 1) + ". " + question.getAnswerText(i));
+            button.setCallbackData(CallbackAnswer.encode(test, answers, answers.length, i));
+            rows.add(List.of(button));
+        }
+
+        SendMessage message = createMessage(chatId, test.getQuestionPrompt(questionIndex));
+        message.setReplyMarkup(new InlineKeyboardMarkup(rows));
+        return message;
+    }
+
+    /**
+     * Обрабатывает нажатие кнопки inline-клавиатуры: задает следующий вопрос или выводит результат.
+     * Сессия на сервере не используется; данные кнопки проверяются по текущему каталогу.
+     */
+    SendMessage processCallback(long chatId, String data) {
+        long started = System.nanoTime();
+        try {
+            CallbackAnswer answer = CallbackAnswer.decode(data);
+            if (answer == null) {
+                parseFailures.increment();
+                logger.warn("Некорректные данные кнопки от {}: {}", chatId, data);
+                return createMessage(chatId, "Не удалось обработать ответ. Список тестов: /help");
+            }
+            DiagnosticTest test = host.getCatalog().findByFingerprint(answer.getFingerprint());
+            if (test == null) {
+                // Тест изменился после отправки вопроса: ответы старой версии не применяются
+                logger.info("Ответ кнопкой на устаревшую версию теста от {}", chatId);
+                return createMessage(chatId, "Тест был обновлен, начните его заново. Список тестов: /help");
+            }
+            if (!answer.matches(test)) {
+                parseFailures.increment();
+                logger.warn("Данные кнопки не соответствуют тесту от {}: {}", chatId, data);
+                return createMessage(chatId, "Не удалось обработать ответ. Список тестов: /help");
+            }
+
+            byte[] answers = answer.getAnswers();
+            if (answers.length < test.getQuestionCount()) {
+                return inlineQuestion(chatId, test, answers);
+            }
+            // Временная сессия только для подсчета результата; в хранилище не попадает
+            DiagnosisSession session = new DiagnosisSession(test, answers.length, answers, 0);
+            return completeTest(chatId, session);
+        } finally {
+            callbackLatency.recordSince(started);
         }
     }
 
@@ -227,69 +791,153 @@ public class MedicalDiagnosisBot extends TelegramLongPollingBot {
      * Записывает баллы, проверяет завершение теста и либо задает следующий вопрос,
      * либо выводит результат.
      */
-    private SendMessage handleUserResponse(String chatId, String message) {
+    private SendMessage handleUserResponse(long chatId, String message) {
         try {
             // Получение текущей сессии
             DiagnosisSession session = userSessions.get(chatId);
             if (session == null) {
                 logger.warn("Попытка ответа без активной сессии: {}", chatId);
                 return createMessage(chatId,
-                        "У вас нет активного теста. Начните тест с помощью команды /glasgow");
+                        "У вас нет активного теста. Список тестов: /help");
             }
 
-            // Проверка текущего вопроса
-            DiagnosticQuestion currentQuestion = session.getCurrentQuestion();
-            if (currentQuestion == null) {
-                logger.error("Текущий вопрос не найден для {}", chatId);
-                return createMessage(chatId, "Ошибка: текущий вопрос не найден");
-            }
+            // Сообщения одного чата обрабатываются диспетчером последовательно,
+            // поэтому дополнительная синхронизация сессии не нужна
+            return answerQuestion(chatId, session, message);
+        } catch (Exception e) {
+            logger.error("Ошибка обработки ответа от {}", chatId, e);
+            return createMessage(chatId, "Произошла ошибка при обработке вашего ответа");
+        }
+    }
 
-            // Обработка номера ответа
-            List<String> possibleAnswers = currentQuestion.getPossibleAnswers();
-            int answerIndex = Integer.parseInt(message) - 1;
+    /**
+     * Записывает ответ в сессию и формирует следующий вопрос или результат.
+     */
+    private SendMessage answerQuestion(long chatId, DiagnosisSession session, String message) {
+        // Проверка текущего вопроса
+        DiagnosticQuestion currentQuestion = session.getCurrentQuestion();
+        if (currentQuestion == null) {
+            logger.error("Текущий вопрос не найден для {}", chatId);
+            return createMessage(chatId, "Ошибка: текущий вопрос не найден");
+        }
 
-            if (answerIndex < 0 || answerIndex >= possibleAnswers.size()) {
-                logger.warn("Некорректный ответ от {}: {}", chatId, message);
-                return createMessage(chatId, "Пожалуйста, введите номер ответа из предложенных");
-            }
+        // В ответ на первый вопрос можно прислать баллы всех параметров сразу
+        if (session.getCurrentQuestionNumber() == 1 && BatchAnswer.looksLikeBatch(message)) {
+            return answerAll(chatId, session, message);
+        }
 
-            // Запись ответа
-            String selectedAnswer = possibleAnswers.get(answerIndex);
-            Integer answerValue = currentQuestion.getValueForAnswer(selectedAnswer);
-            session.recordAnswer(currentQuestion.getParameterName(), answerValue);
-            logger.debug("Записан ответ от {}: {} = {}", chatId, selectedAnswer, answerValue);
-
-            // Проверка завершения теста
-            if (session.isComplete()) {
-                String diagnosis = session.getDiagnosisResult();
-                userSessions.remove(chatId);
-                logger.info("Тест завершен для {}, результат: {}", chatId, diagnosis);
-                return createMessage(chatId,
-                        "Диагностика завершена.\n\n" +
-                                "Результат: " + diagnosis + "\n\n" +
-                                "Для нового теста используйте команду /glasgow");
-            } else {
-                return askNextQuestion(chatId, session);
-            }
-        } catch (NumberFormatException e) {
+        // Обработка номера ответа
+        int answerNumber = parseAnswerNumber(message);
+        if (answerNumber < 0) {
+            parseFailures.increment();
             logger.warn("Некорректный формат ответа от {}: {}", chatId, message);
             return createMessage(chatId, "Пожалуйста, введите номер ответа (1, 2, 3 и т.д.)");
-        } catch (Exception e) {
-            logger.error("Ошибка обработки ответа от {}", chatId, e);
-            return createMessage(chatId, "Произошла ошибка при обработке вашего ответа");
         }
+        int answerIndex = answerNumber - 1;
+
+        if (answerIndex < 0 || answerIndex >= currentQuestion.getAnswerCount()) {
+            parseFailures.increment();
+            logger.warn("Некорректный ответ от {}: {}", chatId, message);
+            return createMessage(chatId, "Пожалуйста, введите номер ответа из предложенных");
+        }
+
+        // Запись ответа вместе с переходом к следующему вопросу: снимок журнала
+        // видит сессию либо до ответа, либо уже на следующем вопросе
+        int questionIndex = session.getCurrentQuestionNumber() - 1;
+        DiagnosticQuestion nextQuestion = session.answer(answerIndex);
+        if (journal != null) {
+            journal.logAnswer(chatId, questionIndex, answerIndex);
+        }
+        logger.debug("Записан ответ от {}: {} = {}", chatId,
+                currentQuestion.getAnswerText(answerIndex), currentQuestion.getAnswerValue(answerIndex));
+
+        // Проверка завершения теста
+        if (nextQuestion == null) {
+            userSessions.remove(chatId);
+            if (journal != null) {
+                journal.logComplete(chatId);
+            }
+            return completeTest(chatId, session);
+        } else {
+            return questionMessage(chatId, session);
+        }
+    }
+
+    /**
+     * Завершает сессию по баллам всех параметров, присланным в ответ на первый вопрос.
+     * При ошибке разбора сессия сохраняется и ожидает ответ на первый вопрос.
+     */
+    private SendMessage answerAll(long chatId, DiagnosisSession session, String message) {
+        DiagnosticTest test = session.getTest();
+        byte[] answers = BatchAnswer.parse(test, message);
+        if (answers == null) {
+            parseFailures.increment();
+            logger.warn("Некорректные баллы теста \"{}\" от {}: {}", test.getTestName(), chatId, message);
+            return createMessage(chatId, batchHint(test));
+        }
+        userSessions.remove(chatId);
+        if (journal != null) {
+            journal.logComplete(chatId);
+        }
+        batchAnswers.increment();
+        return completeTest(chatId,
+                new DiagnosisSession(test, answers.length, answers, session.getStartedMillis()));
+    }
+
+    /**
+     * Разбирает номер ответа без исключений
+     * @param message текст сообщения
+     * @return номер ответа или -1, если сообщение не является числом
+     */
+    private static int parseAnswerNumber(String message) {
+        String text = message.trim();
+        if (text.isEmpty() || text.length() > 3) {
+            return -1;
+        }
+        int number = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    /**
+     * Учитывает завершенный тест (результаты, статистика, метрики) и формирует сообщение с результатом.
+     */
+    private SendMessage completeTest(long chatId, DiagnosisSession session) {
+        String diagnosis = session.getDiagnosisResult();
+        if (results != null) {
+            results.submit(chatId, session, diagnosis);
+        }
+        stats.record(session, diagnosis, host.getCatalog());
+        if (history != null) {
+            history.record(chatId, session, System.currentTimeMillis());
+        }
+        completionCounter(session.getTest(), session.getTotalScore(), diagnosis).increment();
+        logger.info("Тест завершен для {}, результат: {}", chatId, diagnosis);
+        return createMessage(chatId,
+                "Диагностика завершена.\n\n" +
+                        "Результат: " + diagnosis + "\n\n" +
+                        "Для нового теста используйте команду " + restartCommand(session.getTest()));
     }
 
     /**
      * Отменяет текущую тестовую сессию пользователя.
      */
-    private SendMessage cancelSession(String chatId) {
+    private SendMessage cancelSession(long chatId) {
         try {
-            if (userSessions.containsKey(chatId)) {
-                userSessions.remove(chatId);
+            DiagnosisSession cancelled = userSessions.remove(chatId);
+            if (cancelled != null) {
+                if (journal != null) {
+                    journal.logCancel(chatId);
+                }
                 logger.info("Сессия отменена для {}", chatId);
-                return createMessage(chatId,
-                        "Текущий тест отменен. Вы можете начать новый тест с помощью команды /glasgow");
+                return createMessage(chatId, "Текущий тест отменен. Вы можете начать новый тест с помощью команды "
+                        + restartCommand(cancelled.getTest()));
             }
             logger.warn("Попытка отмены несуществующей сессии: {}", chatId);
             return createMessage(chatId, "Нет активного теста для отмены");
@@ -299,16 +947,47 @@ public class MedicalDiagnosisBot extends TelegramLongPollingBot {
         }
     }
 
+    /**
+     * Команда, предлагаемая для нового теста: команда того же теста или список тестов.
+     */
+    private static String restartCommand(DiagnosticTest test) {
+        return test.getCommand() != null ? test.getCommand() : "/help";
+    }
+
     /**
      * Вспомогательный метод для создания текстового сообщения.
      */
-    private SendMessage createMessage(String chatId, String text) {
+    private SendMessage createMessage(long chatId, String text) {
         SendMessage message = new SendMessage();
         message.setChatId(chatId);
         message.setText(text);
         return message;
     }
 
+    /**
+     * Останавливает фоновые потоки бота при завершении работы.
+     */
+    @Override
+    public void onClosing() {
+        // Общие ресурсы закрывает тот, кто их создал; собственный пул закрывается до очереди отправки,
+        // чтобы обработанные сообщения успели в нее попасть
+        if (hostOwner) {
+            host.close();
+        }
+        outbound.close();
+        if (journal != null) {
+            journal.close();
+        }
+        if (results != null) {
+            results.close();
+        }
+        if (history != null) {
+            history.close();
+        }
+        userSessions.close();
+        super.onClosing();
+    }
+
     /**
      * Возвращает имя бота (из конфигурации).
      */
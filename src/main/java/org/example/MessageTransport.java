@@ -0,0 +1,31 @@
+package org.example;
+
+import org.telegram.telegrambots.meta.api.methods.AnswerCallbackQuery;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Транспорт для отправки сообщений пользователю.
+ * В рабочем режиме это асинхронный вызов Telegram API, в тестах и нагрузочных
+ * прогонах его можно заменить локальной заглушкой.
+ */
+@FunctionalInterface
+public interface MessageTransport {
+
+    /**
+     * Отправить сообщение асинхронно
+     * @param message сообщение
+     * @return результат отправки; при ошибке future завершается исключением
+     */
+    CompletableFuture<?> send(SendMessage message);
+
+    /**
+     * Подтвердить нажатие кнопки inline-клавиатуры (убирает индикатор загрузки у пользователя)
+     * @param answer подтверждение
+     * @return результат отправки; по умолчанию подтверждение не отправляется
+     */
+    default CompletableFuture<?> answerCallback(AnswerCallbackQuery answer) {
+        return CompletableFuture.completedFuture(null);
+    }
+}
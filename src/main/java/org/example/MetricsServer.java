@@ -0,0 +1,83 @@
+package org.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP-сервер для выгрузки метрик в текстовом формате Prometheus (GET /metrics).
+ * Слушает только локальный адрес, если не указано иное: метрики не предназначены для публичного доступа.
+ */
+public class MetricsServer implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(MetricsServer.class);
+
+    private final BotMetrics metrics;
+    private final HttpServer server;
+
+    /**
+     * @param metrics реестр выгружаемых метрик
+     * @param host адрес, на котором принимаются запросы
+     * @param port порт HTTP-сервера
+     * @throws IOException если не удалось открыть порт
+     */
+    public MetricsServer(BotMetrics metrics, String host, int port) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(host), port), 0);
+        server.createContext("/metrics", this::handle);
+    }
+
+    /**
+     * Создает сервер по параметрам из config.env
+     * @param metrics реестр выгружаемых метрик
+     * @param config конфигурация бота
+     * @return сервер (еще не запущенный) или null, если METRICS_PORT не задан
+     * @throws IOException если не удалось открыть порт
+     */
+    public static MetricsServer fromConfig(BotMetrics metrics, BotConfig config) throws IOException {
+        if (config.get("METRICS_PORT", null) == null) {
+            return null;
+        }
+        return new MetricsServer(metrics,
+                config.get("METRICS_HOST", "127.0.0.1"),
+                config.getInt("METRICS_PORT", 0));
+    }
+
+    /**
+     * Запускает прием запросов
+     */
+    public void start() {
+        server.start();
+        logger.info("Метрики доступны на порту {}", server.getAddress().getPort());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] response = metrics.toPrometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (Exception e) {
+            logger.error("Ошибка выгрузки метрик", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,379 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.exceptions.TelegramApiRequestException;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Асинхронная очередь исходящих сообщений.
+ * Ограничивает частоту отправки глобально (~30 сообщений/с) и для каждого чата (~1 сообщение/с),
+ * учитывает retry_after из ответов 429, повторяет отправку при сетевых ошибках
+ * и объединяет накопившиеся подряд сообщения одного чата в одно.
+ * Все состояние очереди изменяется только в одном потоке "outbound-sender",
+ * поэтому вызывающие потоки никогда не блокируются на сети.
+ */
+public class OutboundSender implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(OutboundSender.class);
+
+    // Максимальная длина текста сообщения в Telegram
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+
+    // Базовая задержка повторной отправки при сетевой ошибке, мс
+    private static final long RETRY_BASE_DELAY_MILLIS = 500;
+
+    // Период удаления неактивных очередей чатов, мс
+    private static final long CLEANUP_INTERVAL_MILLIS = 30_000;
+
+    private final MessageTransport transport;
+    private final ScheduledExecutorService loop;
+
+    // Состояние ниже доступно только из потока loop
+    private final Map<Long, ChatOutbox> outboxes = new HashMap<>();
+    private final ArrayDeque<ChatOutbox> ready = new ArrayDeque<>();
+    private final TokenBucket globalBucket;
+    private boolean pumpScheduled;
+
+    private final double chatRate;
+    private final int chatBurst;
+    private final int maxQueued;
+    private final int maxAttempts;
+
+    // Счетчики, доступные из других потоков
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    // Время от передачи сообщения в транспорт до ответа Telegram
+    private final LatencyHistogram sendLatency;
+
+    /**
+     * @param transport транспорт отправки сообщений
+     * @param globalRate глобальный лимит, сообщений в секунду
+     * @param chatRate лимит на один чат, сообщений в секунду
+     * @param chatBurst допустимая пачка сообщений одному чату
+     * @param maxQueued максимальное количество сообщений в очереди
+     * @param maxAttempts количество попыток отправки при сетевых ошибках
+     * @param metrics реестр метрик, в котором регистрируются показатели очереди
+     */
+    public OutboundSender(MessageTransport transport, double globalRate, double chatRate,
+                          int chatBurst, int maxQueued, int maxAttempts, BotMetrics metrics) {
+        if (maxQueued <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Параметры очереди отправки должны быть положительными");
+        }
+        this.transport = transport;
+        this.chatRate = chatRate;
+        this.chatBurst = chatBurst;
+        this.maxQueued = maxQueued;
+        this.maxAttempts = maxAttempts;
+        this.sendLatency = metrics.histogram("bot_send_latency_seconds",
+                "Время выполнения запроса отправки сообщения в Telegram");
+        metrics.gauge("bot_outbound_queued", "Сообщения, ожидающие отправки", queued::get);
+        metrics.counter("bot_outbound_sent_total", "Отправленные сообщения (после объединения)", sent::get);
+        metrics.counter("bot_outbound_coalesced_total", "Сообщения, объединенные с предыдущими", coalesced::get);
+        metrics.counter("bot_outbound_dropped_total", "Сообщения, отброшенные при переполнении очереди", dropped::get);
+        metrics.counter("bot_outbound_failed_total", "Сообщения, которые не удалось отправить", failed::get);
+        this.globalBucket = new TokenBucket(globalRate, Math.max(1, (int) globalRate), System.nanoTime());
+        this.loop = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "outbound-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        loop.scheduleWithFixedDelay(this::removeIdleOutboxes,
+                CLEANUP_INTERVAL_MILLIS, CLEANUP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Создает очередь отправки по параметрам из config.env
+     * @param transport транспорт отправки сообщений
+     * @param config конфигурация бота
+     * @param metrics реестр метрик
+     * @return очередь отправки
+     */
+    public static OutboundSender fromConfig(MessageTransport transport, BotConfig config, BotMetrics metrics) {
+        return new OutboundSender(transport,
+                config.getInt("OUTBOUND_GLOBAL_RATE", 30),
+                config.getInt("OUTBOUND_CHAT_RATE", 1),
+                config.getInt("OUTBOUND_CHAT_BURST", 3),
+                config.getInt("OUTBOUND_MAX_QUEUE", 50_000),
+                config.getInt("OUTBOUND_MAX_ATTEMPTS", 3),
+                metrics);
+    }
+
+    /**
+     * Поставить сообщение в очередь отправки
+     * @param chatId идентификатор чата
+     * @param message сообщение
+     * @return false, если очередь переполнена и сообщение отброшено
+     */
+    public boolean enqueue(long chatId, SendMessage message) {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            logger.warn("Очередь отправки переполнена, сообщение для {} отброшено", chatId);
+            return false;
+        }
+        if (!post(() -> accept(chatId, message))) {
+            queued.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return количество сообщений, ожидающих отправки
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return количество успешно отправленных сообщений (после объединения)
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return количество сообщений, присоединенных к предыдущим при объединении
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return количество сообщений, отброшенных из-за переполнения очереди
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return количество сообщений, которые не удалось отправить
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    private boolean post(Runnable action) {
+        try {
+            loop.execute(action);
+            return true;
+        } catch (RejectedExecutionException e) {
+            // Очередь уже остановлена
+            return false;
+        }
+    }
+
+    private void accept(long chatId, SendMessage message) {
+        ChatOutbox box = outboxes.computeIfAbsent(chatId, ChatOutbox::new);
+        box.messages.add(new Outgoing(message, 1));
+        if (box.state == ChatOutbox.IDLE) {
+            markReady(box);
+        }
+    }
+
+    private void markReady(ChatOutbox box) {
+        box.state = ChatOutbox.READY;
+        ready.add(box);
+        pump();
+    }
+
+    /**
+     * Отправляет сообщения готовых чатов, пока есть глобальные токены
+     */
+    private void pump() {
+        while (!ready.isEmpty()) {
+            long now = System.nanoTime();
+            ChatOutbox box = ready.peek();
+
+            long chatWait = box.bucket.tryAcquire(now);
+            if (chatWait > 0) {
+                // Чат исчерпал свой лимит: вернется в очередь готовых по таймеру
+                ready.poll();
+                box.state = ChatOutbox.WAITING;
+                loop.schedule(() -> markReady(box), chatWait, TimeUnit.NANOSECONDS);
+                continue;
+            }
+            long globalWait = globalBucket.tryAcquire(now);
+            if (globalWait > 0) {
+                box.bucket.refund();
+                schedulePump(globalWait);
+                return;
+            }
+            ready.poll();
+            send(box);
+        }
+    }
+
+    private void schedulePump(long delayNanos) {
+        if (!pumpScheduled) {
+            pumpScheduled = true;
+            loop.schedule(() -> {
+                pumpScheduled = false;
+                pump();
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void send(ChatOutbox box) {
+        Outgoing outgoing = box.messages.poll();
+        // Объединяем сообщения, накопившиеся за время ожидания лимита
+        Outgoing next;
+        while ((next = box.messages.peek()) != null && canMerge(outgoing.message, next.message)) {
+            box.messages.poll();
+            outgoing = merge(outgoing, next);
+            coalesced.incrementAndGet();
+        }
+
+        box.state = ChatOutbox.IN_FLIGHT;
+        box.lastActivityNanos = System.nanoTime();
+        Outgoing inFlight = outgoing;
+        long started = System.nanoTime();
+        try {
+            transport.send(inFlight.message).whenComplete((result, error) -> {
+                sendLatency.recordSince(started);
+                post(() -> onComplete(box, inFlight, error));
+            });
+        } catch (Exception e) {
+            onComplete(box, inFlight, e);
+        }
+    }
+
+    private void onComplete(ChatOutbox box, Outgoing outgoing, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+                ? error.getCause() : error;
+        if (cause == null) {
+            sent.incrementAndGet();
+            queued.addAndGet(-outgoing.count);
+        } else if (cause instanceof TelegramApiRequestException) {
+            TelegramApiRequestException apiError = (TelegramApiRequestException) cause;
+            if (apiError.getErrorCode() != null && apiError.getErrorCode() == 429) {
+                // Превышен лимит Telegram: повторяем после паузы, указанной сервером
+                int retryAfter = apiError.getParameters() != null && apiError.getParameters().getRetryAfter() != null
+                        ? apiError.getParameters().getRetryAfter() : 1;
+                logger.warn("Лимит Telegram для {}, повтор через {} с", box.chatId, retryAfter);
+                box.bucket.pauseUntil(System.nanoTime() + TimeUnit.SECONDS.toNanos(retryAfter));
+                box.messages.addFirst(outgoing);
+            } else {
+                // Ошибки запроса (4xx) повторять бессмысленно
+                logger.error("Ошибка отправки сообщения для {}: {}", box.chatId, apiError.getMessage());
+                failed.addAndGet(outgoing.count);
+                queued.addAndGet(-outgoing.count);
+            }
+        } else if (++outgoing.attempts < maxAttempts) {
+            long delay = RETRY_BASE_DELAY_MILLIS << (outgoing.attempts - 1);
+            logger.warn("Ошибка сети при отправке для {}, повтор через {} мс", box.chatId, delay, cause);
+            box.bucket.pauseUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay));
+            box.messages.addFirst(outgoing);
+        } else {
+            logger.error("Не удалось отправить сообщение для {} после {} попыток", box.chatId, outgoing.attempts, cause);
+            failed.addAndGet(outgoing.count);
+            queued.addAndGet(-outgoing.count);
+        }
+
+        box.lastActivityNanos = System.nanoTime();
+        box.state = ChatOutbox.IDLE;
+        if (!box.messages.isEmpty()) {
+            markReady(box);
+        } else {
+            pump();
+        }
+    }
+
+    private static boolean canMerge(SendMessage first, SendMessage second) {
+        // Клавиатуру первого сообщения можно потерять, только если она совпадает со второй
+        return (first.getReplyMarkup() == null || first.getReplyMarkup() == second.getReplyMarkup())
+                && first.getParseMode() == null && second.getParseMode() == null
+                && first.getText().length() + 2 + second.getText().length() <= MAX_MESSAGE_LENGTH;
+    }
+
+    private static Outgoing merge(Outgoing first, Outgoing second) {
+        SendMessage merged = new SendMessage();
+        merged.setChatId(first.message.getChatId());
+        merged.setText(first.message.getText() + "\n\n" + second.message.getText());
+        merged.setReplyMarkup(second.message.getReplyMarkup());
+        return new Outgoing(merged, first.count + second.count);
+    }
+
+    /**
+     * Удаляет очереди чатов, которые давно ничего не отправляли (их лимит уже восстановился)
+     */
+    private void removeIdleOutboxes() {
+        long idleNanos = (long) (chatBurst / chatRate * 1_000_000_000d);
+        long now = System.nanoTime();
+        Iterator<ChatOutbox> iterator = outboxes.values().iterator();
+        while (iterator.hasNext()) {
+            ChatOutbox box = iterator.next();
+            if (box.state == ChatOutbox.IDLE && box.messages.isEmpty()
+                    && now - box.lastActivityNanos > idleNanos) {
+                iterator.remove();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        loop.shutdown();
+        try {
+            if (!loop.awaitTermination(5, TimeUnit.SECONDS)) {
+                loop.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            loop.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Сообщение в очереди вместе с числом исходных сообщений и попыток отправки
+     */
+    private static final class Outgoing {
+        private final SendMessage message;
+        private final int count;
+        private int attempts;
+
+        private Outgoing(SendMessage message, int count) {
+            this.message = message;
+            this.count = count;
+        }
+    }
+
+    /**
+     * Очередь исходящих сообщений одного чата. В полете не более одного сообщения,
+     * что сохраняет порядок доставки.
+     */
+    private final class ChatOutbox {
+        private static final int IDLE = 0;
+        private static final int READY = 1;
+        private static final int WAITING = 2;
+        private static final int IN_FLIGHT = 3;
+
+        private final long chatId;
+        private final ArrayDeque<Outgoing> messages = new ArrayDeque<>();
+        private final TokenBucket bucket;
+        private int state = IDLE;
+        private long lastActivityNanos;
+
+        private ChatOutbox(long chatId) {
+            this.chatId = chatId;
+            this.lastActivityNanos = System.nanoTime();
+            this.bucket = new TokenBucket(chatRate, chatBurst, lastActivityNanos);
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Асинхронная запись результатов завершенных тестов для клинического аудита.
+ * Потоки обработки только помещают результат в ограниченную очередь (кольцевой буфер)
+ * и никогда не ждут диска. Фоновый поток "result-writer" забирает результаты пачками
+ * и дописывает их в бинарные файлы results-N.bin; данные сбрасываются на диск,
+ * когда накопилось flushBytes байт или прошло flushInterval. При переполнении очереди
+ * результат отбрасывается и учитывается в метриках.
+ *
+ * Формат файла: int "RSLT", затем записи, начинающиеся с байта типа:
+ * 'T' - описание теста (локальный номер, название, параметры вопросов), пишется один раз на файл;
+ * 'R' - результат (номер теста, chatId, время начала и завершения, индекс ответа и балл
+ * по каждому параметру, сумма баллов, диагноз).
+ */
+public class ResultSink implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(ResultSink.class);
+
+    private static final int FILE_MAGIC = 0x52534C54; // "RSLT"
+    private static final byte TEST_RECORD = 'T';
+    private static final byte RESULT_RECORD = 'R';
+
+    // Максимальное количество результатов, забираемых из очереди за один раз
+    private static final int DRAIN_BATCH = 256;
+
+    private final Path directory;
+    private final long flushBytes;
+    private final long flushIntervalNanos;
+    private final long maxFileBytes;
+
+    private final BlockingQueue<Result> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    // Метрики очереди
+    private final LongAdder written;
+    private final LongAdder dropped;
+    private final LatencyHistogram flushLatency;
+
+    // Состояние ниже доступно только потоку writer
+    private FileChannel channel;
+    private DataOutputStream out;
+    private long fileSequence;
+    private long fileBytes;
+    private long unflushedBytes;
+    // Результаты, записанные в текущий файл после последнего успешного сброса на диск
+    private long unflushedResults;
+    private long lastFlushNanos;
+    private final Map<DiagnosticTest, Integer> fileTests = new IdentityHashMap<>();
+
+    /**
+     * @param directory каталог файлов результатов
+     * @param capacity емкость очереди результатов
+     * @param flushBytes объем данных, после которого выполняется сброс на диск, байт
+     * @param flushIntervalMillis максимальное время до сброса на диск, мс
+     * @param maxFileBytes размер файла, после которого начинается новый, байт
+     * @param metrics реестр метрик
+     */
+    public ResultSink(Path directory, int capacity, long flushBytes, long flushIntervalMillis,
+                      long maxFileBytes, BotMetrics metrics) {
+        if (capacity <= 0 || flushBytes <= 0 || flushIntervalMillis <= 0 || maxFileBytes <= 0) {
+            throw new IllegalArgumentException("Параметры записи результатов должны быть положительными");
+        }
+        this.directory = directory;
+        this.flushBytes = flushBytes;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.maxFileBytes = maxFileBytes;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.written = metrics.counter("bot_results_written_total", "Результаты, записанные в файлы и сброшенные на диск");
+        this.dropped = metrics.counter("bot_results_dropped_total",
+                "Результаты, отброшенные из-за переполнения очереди или ошибки записи");
+        this.flushLatency = metrics.histogram("bot_results_flush_latency_seconds",
+                "Время сброса файла результатов на диск");
+        metrics.gauge("bot_results_queued", "Результаты, ожидающие записи", queue::size);
+        this.writer = new Thread(this::run, "result-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Создает запись результатов по параметрам из config.env
+     * @param config конфигурация бота
+     * @param metrics реестр метрик
+     * @return запись результатов или null, если RESULTS_DIR не задан (запись отключена)
+     */
+    public static ResultSink fromConfig(BotConfig config, BotMetrics metrics) {
+        String dir = config.get("RESULTS_DIR");
+        if (dir == null) {
+            return null;
+        }
+        return new ResultSink(Paths.get(dir),
+                config.getInt("RESULTS_QUEUE_SIZE", 8192),
+                config.getLong("RESULTS_FLUSH_KB", 64) << 10,
+                config.getLong("RESULTS_FLUSH_MS", 1000),
+                config.getLong("RESULTS_FILE_MB", 64) << 20,
+                metrics);
+    }
+
+    /**
+     * Открывает новый файл результатов и запускает фоновую запись
+     * @throws IOException если не удалось создать файл
+     */
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        openFile(latestSequence() + 1);
+        writer.start();
+    }
+
+    /**
+     * Поставить результат завершенного теста в очередь записи (не блокируется)
+     * @param chatId идентификатор чата
+     * @param session завершенная сессия
+     * @param diagnosis результат диагностики
+     * @return false, если очередь переполнена и результат отброшен
+     */
+    public boolean submit(long chatId, DiagnosisSession session, String diagnosis) {
+        byte[] answers = new byte[session.getTotalQuestions()];
+        for (int q = 0; q < answers.length; q++) {
+            answers[q] = (byte) session.getAnswerIndex(q);
+        }
+        Result result = new Result(chatId, session.getTest(), answers, session.getTotalScore(), diagnosis,
+                session.getStartedMillis(), System.currentTimeMillis());
+        if (!running || !queue.offer(result)) {
+            dropped.increment();
+            logger.warn("Очередь записи результатов переполнена, результат для {} отброшен", chatId);
+            return false;
+        }
+        return true;
+    }
+
+    private void run() {
+        List<Result> batch = new ArrayList<>(DRAIN_BATCH);
+        while (running || !queue.isEmpty()) {
+            int batchWritten = 0;
+            try {
+                long untilFlush = unflushedBytes > 0
+                        ? Math.max(0, lastFlushNanos + flushIntervalNanos - System.nanoTime())
+                        : flushIntervalNanos;
+                Result first = queue.poll(untilFlush, TimeUnit.NANOSECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, DRAIN_BATCH - 1);
+                    for (Result result : batch) {
+                        write(result);
+                        batchWritten++;
+                        unflushedResults++;
+                    }
+                }
+                if (unflushedBytes >= flushBytes
+                        || (unflushedBytes > 0 && System.nanoTime() - lastFlushNanos >= flushIntervalNanos)) {
+                    flush();
+                }
+                if (fileBytes >= maxFileBytes) {
+                    flush();
+                    openFile(fileSequence + 1);
+                }
+            } catch (InterruptedException e) {
+                // Остановка: дописываем то, что осталось в очереди
+                running = false;
+            } catch (IOException e) {
+                // Ошибка диска не должна останавливать запись последующих результатов.
+                // Потеряны несброшенные результаты оставляемого файла и незаписанный остаток пачки
+                dropped.add(unflushedResults + batch.size() - batchWritten);
+                unflushedResults = 0;
+                logger.error("Ошибка записи результатов тестов", e);
+                reopenAfterFailure();
+            } finally {
+                batch.clear();
+            }
+        }
+        try {
+            if (out != null) {
+                flush();
+                out.close();
+            }
+        } catch (IOException e) {
+            dropped.add(unflushedResults);
+            unflushedResults = 0;
+            logger.error("Ошибка закрытия файла результатов", e);
+        }
+    }
+
+    private void write(Result result) throws IOException {
+        if (out == null) {
+            openFile(fileSequence + 1);
+        }
+        Integer testId = fileTests.get(result.test);
+        if (testId == null) {
+            // Описание теста пишется в каждый файл, чтобы файлы читались независимо
+            testId = fileTests.size();
+            fileTests.put(result.test, testId);
+            out.writeByte(TEST_RECORD);
+            out.writeInt(testId);
+            out.writeUTF(result.test.getTestName());
+            out.writeByte(result.test.getQuestionCount());
+            for (DiagnosticQuestion question : result.test.getQuestions()) {
+                out.writeUTF(question.getParameterName() != null ? question.getParameterName() : "");
+            }
+        }
+        out.writeByte(RESULT_RECORD);
+        out.writeInt(testId);
+        out.writeLong(result.chatId);
+        out.writeLong(result.startedMillis);
+        out.writeLong(result.completedMillis);
+        out.writeByte(result.answers.length);
+        for (int q = 0; q < result.answers.length; q++) {
+            int answer = result.answers[q];
+            out.writeByte(answer);
+            out.writeInt(answer >= 0 ? result.test.getQuestion(q).getAnswerValue(answer) : 0);
+        }
+        out.writeInt(result.totalScore);
+        out.writeUTF(result.diagnosis);
+
+        long size = out.size();
+        unflushedBytes += size - fileBytes;
+        fileBytes = size;
+    }
+
+    private void flush() throws IOException {
+        if (unflushedBytes == 0) {
+            return;
+        }
+        long started = System.nanoTime();
+        out.flush();
+        channel.force(false);
+        unflushedBytes = 0;
+        // Результат считается записанным только после сброса на диск
+        written.add(unflushedResults);
+        unflushedResults = 0;
+        lastFlushNanos = System.nanoTime();
+        flushLatency.recordSince(started);
+    }
+
+    private void openFile(long sequence) throws IOException {
+        if (out != null) {
+            try {
+                out.close();
+            } finally {
+                out = null;
+            }
+        }
+        channel = FileChannel.open(directory.resolve(String.format("results-%016d.bin", sequence)),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        out.writeInt(FILE_MAGIC);
+        fileSequence = sequence;
+        fileBytes = out.size();
+        unflushedBytes = fileBytes;
+        lastFlushNanos = System.nanoTime();
+        fileTests.clear();
+    }
+
+    /**
+     * После ошибки записи продолжаем в новом файле: хвост текущего может быть поврежден
+     */
+    private void reopenAfterFailure() {
+        try {
+            openFile(fileSequence + 1);
+        } catch (IOException e) {
+            logger.error("Не удалось открыть новый файл результатов", e);
+        }
+    }
+
+    private long latestSequence() throws IOException {
+        long latest = -1;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "results-*.bin")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String number = name.substring("results-".length(), name.length() - ".bin".length());
+                if (!number.isEmpty() && number.chars().allMatch(Character::isDigit)) {
+                    latest = Math.max(latest, Long.parseLong(number));
+                }
+            }
+        }
+        return latest;
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            // Поток дописывает очередь и закрывает файл; прерываем, только если он не успел
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+            if (writer.isAlive()) {
+                writer.interrupt();
+            }
+        } catch (InterruptedException e) {
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Результат завершенного теста
+     */
+    private static final class Result {
+        private final long chatId;
+        private final DiagnosticTest test;
+        private final byte[] answers;
+        private final int totalScore;
+        private final String diagnosis;
+        private final long startedMillis;
+        private final long completedMillis;
+
+        private Result(long chatId, DiagnosticTest test, byte[] answers, int totalScore, String diagnosis,
+                       long startedMillis, long completedMillis) {
+            this.chatId = chatId;
+            this.test = test;
+            this.answers = answers;
+            this.totalScore = totalScore;
+            this.diagnosis = diagnosis;
+            this.startedMillis = startedMillis;
+            this.completedMillis = completedMillis;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Скомпилированные правила интерпретации результатов теста.
+ * Строки диапазонов ("X-Y", "<=X", ">=Y") разбираются один раз при загрузке
+ * в отсортированную таблицу непересекающихся интервалов. Если диапазон возможных
+ * баллов невелик (например, 3-15 для шкалы Глазго), дополнительно строится
+ * плотный массив балл -> диагноз, и поиск выполняется за O(1).
+ */
+public final class ScoreIntervalIndex {
+    // Максимальная ширина диапазона баллов, для которой строится плотный массив
+    private static final int MAX_DENSE_RANGE = 1024;
+
+    // Интервалы, отсортированные по нижней границе (границы включительно)
+    private final int[] lowerBounds;
+    private final int[] upperBounds;
+    private final String[] diagnoses;
+
+    // Плотная таблица номеров интервалов для баллов от denseMin (-1 - вне интервалов);
+    // null, если диапазон слишком широк
+    private final int denseMin;
+    private final int[] dense;
+
+    private ScoreIntervalIndex(int[] lowerBounds, int[] upperBounds, String[] diagnoses,
+                               int denseMin, int[] dense) {
+        this.lowerBounds = lowerBounds;
+        this.upperBounds = upperBounds;
+        this.diagnoses = diagnoses;
+        this.denseMin = denseMin;
+        this.dense = dense;
+    }
+
+    /**
+     * Компилирует правила интерпретации
+     * @param rules правила: строка диапазона -> текст диагноза
+     * @param minScore минимально возможная сумма баллов теста
+     * @param maxScore максимально возможная сумма баллов теста
+     * @return индекс для поиска диагноза
+     * @throws IllegalArgumentException если правило имеет неверный формат или диапазоны пересекаются
+     */
+    public static ScoreIntervalIndex compile(Map<String, String> rules, int minScore, int maxScore) {
+        int count = rules.size();
+        long[] packed = new long[count];
+        int[] lower = new int[count];
+        int[] upper = new int[count];
+        String[] texts = new String[count];
+
+        int i = 0;
+        for (Map.Entry<String, String> entry : rules.entrySet()) {
+            int[] bounds = parseRange(entry.getKey());
+            if (entry.getValue() == null) {
+                throw new IllegalArgumentException("Не указан диагноз для диапазона \"" + entry.getKey() + "\"");
+            }
+            lower[i] = bounds[0];
+            upper[i] = bounds[1];
+            texts[i] = entry.getValue();
+            // Сортировка по нижней границе с сохранением исходного индекса правила
+            packed[i] = ((long) bounds[0] << 32) | i;
+            i++;
+        }
+        Arrays.sort(packed);
+
+        int[] sortedLower = new int[count];
+        int[] sortedUpper = new int[count];
+        String[] sortedTexts = new String[count];
+        for (int k = 0; k < count; k++) {
+            int source = (int) packed[k];
+            sortedLower[k] = lower[source];
+            sortedUpper[k] = upper[source];
+            sortedTexts[k] = texts[source];
+            if (k > 0 && sortedLower[k] <= sortedUpper[k - 1]) {
+                throw new IllegalArgumentException("Пересекающиеся диапазоны правил: "
+                        + describe(sortedLower[k - 1], sortedUpper[k - 1]) + " и "
+                        + describe(sortedLower[k], sortedUpper[k]));
+            }
+        }
+
+        return fromIntervals(sortedLower, sortedUpper, sortedTexts, minScore, maxScore);
+    }
+
+    /**
+     * Создает индекс из уже скомпилированных интервалов (например, из бинарного каталога)
+     * @param lowerBounds нижние границы, по возрастанию
+     * @param upperBounds верхние границы
+     * @param diagnoses диагнозы интервалов
+     * @param minScore минимально возможная сумма баллов теста
+     * @param maxScore максимально возможная сумма баллов теста
+     * @return индекс для поиска диагноза
+     */
+    static ScoreIntervalIndex fromIntervals(int[] lowerBounds, int[] upperBounds, String[] diagnoses,
+                                           int minScore, int maxScore) {
+        int[] dense = null;
+        if (minScore <= maxScore && (long) maxScore - minScore < MAX_DENSE_RANGE) {
+            dense = new int[maxScore - minScore + 1];
+            Arrays.fill(dense, -1);
+            for (int k = 0; k < lowerBounds.length; k++) {
+                int from = Math.max(lowerBounds[k], minScore);
+                int to = Math.min(upperBounds[k], maxScore);
+                for (int score = from; score <= to; score++) {
+                    dense[score - minScore] = k;
+                }
+            }
+        }
+        return new ScoreIntervalIndex(lowerBounds, upperBounds, diagnoses, minScore, dense);
+    }
+
+    /**
+     * @return количество интервалов
+     */
+    int getIntervalCount() {
+        return lowerBounds.length;
+    }
+
+    /**
+     * @param index номер интервала (по возрастанию нижней границы)
+     * @return нижняя граница интервала (включительно)
+     */
+    int getLowerBound(int index) {
+        return lowerBounds[index];
+    }
+
+    /**
+     * @param index номер интервала
+     * @return верхняя граница интервала (включительно)
+     */
+    int getUpperBound(int index) {
+        return upperBounds[index];
+    }
+
+    /**
+     * @param index номер интервала
+     * @return диагноз интервала
+     */
+    String getDiagnosis(int index) {
+        return diagnoses[index];
+    }
+
+    /**
+     * Найти диагноз для суммы баллов
+     * @param score сумма баллов
+     * @return текст диагноза или null, если балл не попадает ни в один диапазон
+     */
+    public String lookup(int score) {
+        int interval = intervalOf(score);
+        return interval >= 0 ? diagnoses[interval] : null;
+    }
+
+    /**
+     * Найти интервал для суммы баллов
+     * @param score сумма баллов
+     * @return номер интервала (по возрастанию нижней границы) или -1, если балл не попадает ни в один диапазон
+     */
+    int intervalOf(int score) {
+        if (dense != null) {
+            long offset = (long) score - denseMin;
+            if (offset >= 0 && offset < dense.length) {
+                return dense[(int) offset];
+            }
+        }
+        // Двоичный поиск последнего интервала с нижней границей <= score
+        int low = 0;
+        int high = lowerBounds.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (lowerBounds[mid] <= score) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high >= 0 && score <= upperBounds[high] ? high : -1;
+    }
+
+    /**
+     * Разбирает строку диапазона
+     * @param range строка диапазона (форматы: "X-Y", "<=X", ">=Y")
+     * @return массив из нижней и верхней границы (включительно)
+     */
+    private static int[] parseRange(String range) {
+        String value = range == null ? "" : range.trim();
+        try {
+            if (value.startsWith("<=")) {
+                return new int[]{Integer.MIN_VALUE, Integer.parseInt(value.substring(2).trim())};
+            } else if (value.startsWith(">=")) {
+                return new int[]{Integer.parseInt(value.substring(2).trim()), Integer.MAX_VALUE};
+            }
+            // Поиск разделителя со второго символа допускает отрицательную нижнюю границу
+            int dash = value.indexOf('-', 1);
+            if (dash > 0) {
+                int min = Integer.parseInt(value.substring(0, dash).trim());
+                int max = Integer.parseInt(value.substring(dash + 1).trim());
+                if (min > max) {
+                    throw new IllegalArgumentException("Пустой диапазон правила: \"" + range + "\"");
+                }
+                return new int[]{min, max};
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Неверный формат диапазона: \"" + range + "\"", e);
+        }
+        throw new IllegalArgumentException("Неверный формат диапазона: \"" + range + "\"");
+    }
+
+    private static String describe(int min, int max) {
+        if (min == Integer.MIN_VALUE) {
+            return "<=" + max;
+        }
+        if (max == Integer.MAX_VALUE) {
+            return ">=" + min;
+        }
+        return min + "-" + max;
+    }
+}
@@ -0,0 +1,614 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * История последних результатов тестов по чатам для команды /history.
+ * У каждого чата кольцо из depth записей фиксированного размера в примитивных массивах:
+ * время завершения (минуты), отпечаток теста, сумма баллов, число параметров и баллы
+ * по параметрам. Объектов на запись не создается.
+ *
+ * Чаты распределяются по STRIPES сегментам с собственной блокировкой. В сегменте - плотные
+ * массивы колец (растут по мере появления чатов) и хеш-таблица chatId -> номер кольца,
+ * поэтому память пропорциональна числу чатов с историей, умноженному на depth. При достижении
+ * maxChats вытесняется чат с самым давним последним результатом из небольшой выборки.
+ *
+ * Если задан файл вытеснения, вытесненные кольца (и все кольца при остановке) записываются
+ * в хеш-таблицу фиксированного размера на диске и подгружаются при следующем обращении чата.
+ * Дисковая таблица разделена между сегментами, поэтому ее также защищает блокировка сегмента.
+ * Результаты, не успевшие попасть на диск до аварийной остановки, теряются: полный аудит
+ * ведет {@link ResultSink}.
+ */
+public class ScreeningHistory implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(ScreeningHistory.class);
+
+    // Количество сегментов (степень двойки)
+    private static final int STRIPES = 64;
+    private static final int STRIPE_SHIFT = Long.SIZE - Integer.numberOfTrailingZeros(STRIPES);
+
+    private static final int MIN_CAPACITY = 16;
+
+    // Сколько колец просматривается при выборе вытесняемого чата
+    private static final int EVICTION_SAMPLE = 16;
+
+    // Поля записи: время завершения (минуты с начала эпохи), отпечаток теста, сумма баллов,
+    // число сохраненных параметров, затем баллы по параметрам
+    private static final int TIME = 0;
+    private static final int FINGERPRINT = 1;
+    private static final int TOTAL = 2;
+    private static final int COUNT = 3;
+    private static final int HEADER = 4;
+
+    // Файл вытеснения: заголовок "HIST", depth, maxParams, число ячеек; ячейка - chatId,
+    // число записей и записи от старой к новой. Ячейка с нулевым числом записей свободна
+    private static final int SPILL_MAGIC = 0x48495354; // "HIST"
+    private static final int SPILL_HEADER_BYTES = 16;
+    private static final int SPILL_PROBE = 8;
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm");
+
+    private final int depth;
+    private final int maxParams;
+    private final int recordInts;
+    private final int chatInts;
+    private final int stripeCapacity;
+    private final ZoneId zone;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    // Файл вытеснения (null - вытесненная история теряется)
+    private final FileChannel spill;
+    private final int spillBucketsPerStripe;
+    private final int spillBucketBytes;
+
+    /**
+     * @param depth число хранимых результатов на чат
+     * @param maxParams число хранимых баллов по параметрам (у тестов с большим числом вопросов
+     *                  сохраняются первые maxParams, сумма баллов - всегда полная)
+     * @param maxChats максимальное число чатов с историей в памяти
+     * @param zone часовой пояс для вывода времени
+     * @param spillFile файл вытеснения или null
+     * @param spillChats число чатов в файле вытеснения
+     * @throws IOException если не удалось открыть файл вытеснения или он создан с другими параметрами
+     */
+    public ScreeningHistory(int depth, int maxParams, int maxChats, ZoneId zone,
+                            Path spillFile, int spillChats) throws IOException {
+        if (depth <= 0 || depth > 1000 || maxParams < 0 || maxParams > 1000 || maxChats <= 0
+                || (spillFile != null && spillChats <= 0)) {
+            throw new IllegalArgumentException("Некорректные параметры истории тестов");
+        }
+        this.depth = depth;
+        this.maxParams = maxParams;
+        this.recordInts = HEADER + maxParams;
+        this.chatInts = depth * recordInts;
+        this.stripeCapacity = Math.max(1, (maxChats + STRIPES - 1) / STRIPES);
+        this.zone = zone;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(i);
+        }
+
+        if (spillFile == null) {
+            this.spill = null;
+            this.spillBucketsPerStripe = 0;
+            this.spillBucketBytes = 0;
+            return;
+        }
+        this.spillBucketsPerStripe = Math.max(SPILL_PROBE, (spillChats + STRIPES - 1) / STRIPES);
+        this.spillBucketBytes = Long.BYTES + Integer.BYTES + chatInts * Integer.BYTES;
+        if (spillFile.getParent() != null) {
+            Files.createDirectories(spillFile.getParent());
+        }
+        this.spill = FileChannel.open(spillFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(SPILL_HEADER_BYTES);
+            int buckets = spillBucketsPerStripe * STRIPES;
+            if (spill.size() == 0) {
+                header.putInt(SPILL_MAGIC).putInt(depth).putInt(maxParams).putInt(buckets).flip();
+                spill.write(header, 0);
+            } else {
+                spill.read(header, 0);
+                header.flip();
+                if (header.remaining() < SPILL_HEADER_BYTES || header.getInt() != SPILL_MAGIC
+                        || header.getInt() != depth || header.getInt() != maxParams || header.getInt() != buckets) {
+                    throw new IOException("Файл истории " + spillFile + " создан с другими параметрами "
+                            + "HISTORY_SIZE, HISTORY_MAX_PARAMS или HISTORY_SPILL_CHATS");
+                }
+            }
+        } catch (IOException e) {
+            spill.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Создает историю по параметрам из config.env
+     * @param config конфигурация бота
+     * @return история или null, если HISTORY_SIZE = 0 (история отключена)
+     * @throws IOException если не удалось открыть файл вытеснения
+     */
+    public static ScreeningHistory fromConfig(BotConfig config) throws IOException {
+        int depth = config.getInt("HISTORY_SIZE", 10);
+        if (depth <= 0) {
+            return null;
+        }
+        String dir = config.get("HISTORY_DIR");
+        String zone = config.get("HISTORY_TIME_ZONE");
+        return new ScreeningHistory(depth,
+                config.getInt("HISTORY_MAX_PARAMS", 8),
+                config.getInt("HISTORY_MAX_CHATS", 50_000),
+                zone != null ? ZoneId.of(zone) : ZoneId.systemDefault(),
+                dir != null ? Paths.get(dir, "history.bin") : null,
+                config.getInt("HISTORY_SPILL_CHATS", 1 << 18));
+    }
+
+    private Stripe stripeFor(long chatId) {
+        // Старшие биты хеша выбирают сегмент, младшие - слот внутри таблицы
+        return stripes[(int) (LongSessionMap.mix(chatId) >>> STRIPE_SHIFT)];
+    }
+
+    /**
+     * Сохранить результат завершенного теста
+     * @param chatId идентификатор чата
+     * @param session завершенная сессия
+     * @param completedMillis время завершения, мс
+     */
+    public void record(long chatId, DiagnosisSession session, long completedMillis) {
+        DiagnosticTest test = session.getTest();
+        int count = Math.min(test.getQuestionCount(), maxParams);
+        Stripe stripe = stripeFor(chatId);
+        synchronized (stripe) {
+            int chat = stripe.find(chatId);
+            if (chat < 0) {
+                chat = stripe.admit(chatId);
+            }
+            int offset = stripe.append(chat);
+            int[] data = stripe.data;
+            data[offset + TIME] = (int) TimeUnit.MILLISECONDS.toMinutes(completedMillis);
+            data[offset + FINGERPRINT] = test.getFingerprint();
+            data[offset + TOTAL] = session.getTotalScore();
+            data[offset + COUNT] = count;
+            for (int q = 0; q < count; q++) {
+                int answer = session.getAnswerIndex(q);
+                data[offset + HEADER + q] = answer >= 0 ? test.getQuestion(q).getAnswerValue(answer) : 0;
+            }
+        }
+    }
+
+    /**
+     * Копирует записи чата от старой к новой
+     * @param chatId идентификатор чата
+     * @return записи подряд по recordInts значений (пустой массив - истории нет)
+     */
+    int[] snapshot(long chatId) {
+        Stripe stripe = stripeFor(chatId);
+        synchronized (stripe) {
+            int chat = stripe.find(chatId);
+            if (chat < 0 && spill != null) {
+                // Чат был вытеснен: подгружаем его историю, только если она есть на диске
+                int bucket = stripe.findSpilled(chatId);
+                if (bucket >= 0) {
+                    chat = stripe.admit(chatId);
+                }
+            }
+            return chat < 0 ? new int[0] : stripe.copy(chat);
+        }
+    }
+
+    /**
+     * Формирует ответ на команду /history: результаты по тестам в хронологическом порядке
+     * с изменением суммы баллов относительно предыдущего результата того же теста
+     * @param chatId идентификатор чата
+     * @param catalog текущий каталог тестов (названия тестов и результаты диагностики)
+     * @return текст сообщения
+     */
+    public String render(long chatId, TestCatalog catalog) {
+        int[] records = snapshot(chatId);
+        int total = records.length / recordInts;
+        if (total == 0) {
+            return "История пуста: завершенных тестов нет";
+        }
+        StringBuilder text = new StringBuilder("История тестов (последние результаты: ")
+                .append(total).append(" из ").append(depth).append(")\n");
+        // Тесты в порядке первого появления; записи одного теста выводятся подряд
+        boolean[] printed = new boolean[total];
+        for (int first = 0; first < total; first++) {
+            if (printed[first]) {
+                continue;
+            }
+            int fingerprint = records[first * recordInts + FINGERPRINT];
+            DiagnosticTest test = catalog.findByFingerprint(fingerprint);
+            text.append('\n').append(test != null ? test.getTestName() : "Прежняя версия теста").append(":\n");
+            StringBuilder trend = new StringBuilder();
+            int previous = 0;
+            for (int r = first; r < total; r++) {
+                int offset = r * recordInts;
+                if (records[offset + FINGERPRINT] != fingerprint) {
+                    continue;
+                }
+                printed[r] = true;
+                int score = records[offset + TOTAL];
+                text.append(TIME_FORMAT.format(Instant.ofEpochMilli(
+                        TimeUnit.MINUTES.toMillis(records[offset + TIME])).atZone(zone)))
+                        .append("  ").append(score);
+                appendParameters(text, test, records, offset);
+                if (r != first) {
+                    int delta = score - previous;
+                    text.append(delta > 0 ? " ↑" + delta : delta < 0 ? " ↓" + -delta : " =");
+                    trend.append(" → ");
+                }
+                if (test != null) {
+                    text.append(" - ").append(test.evaluateDiagnosis(score));
+                }
+                text.append('\n');
+                trend.append(score);
+                previous = score;
+            }
+            if (trend.indexOf("→") >= 0) {
+                text.append("Динамика: ").append(trend).append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Добавляет баллы по параметрам: "(E4 V5 M6)" при наличии обозначений, иначе "(4 + 5 + 6)"
+     */
+    private static void appendParameters(StringBuilder text, DiagnosticTest test, int[] records, int offset) {
+        int count = records[offset + COUNT];
+        if (count == 0) {
+            return;
+        }
+        text.append(" (");
+        for (int q = 0; q < count; q++) {
+            String shortcut = test != null ? test.getQuestion(q).getShortcut() : null;
+            if (q > 0) {
+                text.append(shortcut != null ? " " : " + ");
+            }
+            if (shortcut != null) {
+                text.append(shortcut);
+            }
+            text.append(records[offset + HEADER + q]);
+        }
+        if (test == null || count < test.getQuestionCount()) {
+            text.append(" ...");
+        }
+        text.append(')');
+    }
+
+    /**
+     * @return число чатов с историей в памяти
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Записывает историю всех чатов в файл вытеснения и закрывает его
+     */
+    @Override
+    public void close() {
+        if (spill == null) {
+            return;
+        }
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (int chat = 0; chat < stripe.size; chat++) {
+                    stripe.writeSpilled(chat);
+                }
+            }
+        }
+        try {
+            spill.force(false);
+            spill.close();
+        } catch (IOException e) {
+            logger.error("Ошибка закрытия файла истории", e);
+        }
+    }
+
+    /**
+     * Сегмент истории. Кольца чатов лежат плотно (номер кольца 0..size-1), хеш-таблица
+     * с открытой адресацией хранит для chatId номер кольца + 1 (0 - свободный слот).
+     * Доступ только под блокировкой сегмента.
+     */
+    private final class Stripe {
+        private final int index;
+
+        private long[] tableKeys;
+        private int[] tableRefs;
+        private int mask;
+
+        private long[] chatIds = new long[0];
+        // Позиция самой старой записи и число записей в кольце
+        private int[] heads = new int[0];
+        private int[] counts = new int[0];
+        private int[] data = new int[0];
+        private int size;
+
+        // Начало следующей выборки для вытеснения
+        private int evictionCursor;
+
+        private Stripe(int index) {
+            this.index = index;
+            allocateTable(MIN_CAPACITY);
+        }
+
+        private int find(long chatId) {
+            int slot = (int) LongSessionMap.mix(chatId) & mask;
+            int ref;
+            while ((ref = tableRefs[slot]) != 0) {
+                if (tableKeys[slot] == chatId) {
+                    return ref - 1;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        /**
+         * Добавляет чат (с историей из файла вытеснения, если она там есть)
+         * @return номер кольца
+         */
+        private int admit(long chatId) {
+            if (size >= stripeCapacity) {
+                evict();
+            }
+            if (size == chatIds.length) {
+                int capacity = Math.min(stripeCapacity, Math.max(MIN_CAPACITY, size * 2));
+                chatIds = Arrays.copyOf(chatIds, capacity);
+                heads = Arrays.copyOf(heads, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+                data = Arrays.copyOf(data, capacity * chatInts);
+            }
+            int chat = size++;
+            chatIds[chat] = chatId;
+            heads[chat] = 0;
+            counts[chat] = 0;
+            // Заполненность таблицы не выше 1/2 сохраняет короткие цепочки пробирования
+            if (size > (mask + 1) >>> 1) {
+                rehash((mask + 1) << 1);
+            }
+            insert(chatId, chat);
+            if (spill != null) {
+                readSpilled(chat);
+            }
+            return chat;
+        }
+
+        /**
+         * Выделяет место под новую запись чата (при заполненном кольце - на месте самой старой)
+         * @return смещение записи в data
+         */
+        private int append(int chat) {
+            int position;
+            if (counts[chat] < depth) {
+                position = (heads[chat] + counts[chat]++) % depth;
+            } else {
+                position = heads[chat];
+                heads[chat] = (position + 1) % depth;
+            }
+            return chat * chatInts + position * recordInts;
+        }
+
+        private int latestMinute(int chat) {
+            int position = (heads[chat] + counts[chat] - 1) % depth;
+            return data[chat * chatInts + position * recordInts + TIME];
+        }
+
+        private int[] copy(int chat) {
+            int[] records = new int[counts[chat] * recordInts];
+            for (int r = 0; r < counts[chat]; r++) {
+                int position = (heads[chat] + r) % depth;
+                System.arraycopy(data, chat * chatInts + position * recordInts, records, r * recordInts, recordInts);
+            }
+            return records;
+        }
+
+        /**
+         * Вытесняет чат с самым давним последним результатом из выборки EVICTION_SAMPLE колец
+         */
+        private void evict() {
+            int victim = -1;
+            int victimMinute = Integer.MAX_VALUE;
+            for (int i = 0; i < Math.min(EVICTION_SAMPLE, size); i++) {
+                int chat = (evictionCursor + i) % size;
+                int minute = counts[chat] > 0 ? latestMinute(chat) : Integer.MIN_VALUE;
+                if (minute < victimMinute) {
+                    victim = chat;
+                    victimMinute = minute;
+                }
+            }
+            evictionCursor = (evictionCursor + EVICTION_SAMPLE) % size;
+            if (spill != null) {
+                writeSpilled(victim);
+            }
+            remove(victim);
+        }
+
+        /**
+         * Удаляет кольцо; на его место переносится последнее, чтобы кольца оставались плотными
+         */
+        private void remove(int chat) {
+            removeKey(chatIds[chat]);
+            int last = --size;
+            if (chat != last) {
+                chatIds[chat] = chatIds[last];
+                heads[chat] = heads[last];
+                counts[chat] = counts[last];
+                System.arraycopy(data, last * chatInts, data, chat * chatInts, chatInts);
+                int slot = (int) LongSessionMap.mix(chatIds[chat]) & mask;
+                while (tableKeys[slot] != chatIds[chat] || tableRefs[slot] == 0) {
+                    slot = (slot + 1) & mask;
+                }
+                tableRefs[slot] = chat + 1;
+            }
+        }
+
+        private void insert(long chatId, int chat) {
+            int slot = (int) LongSessionMap.mix(chatId) & mask;
+            while (tableRefs[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            tableKeys[slot] = chatId;
+            tableRefs[slot] = chat + 1;
+        }
+
+        /**
+         * Удаление со сдвигом последующих записей цепочки назад (как в {@link LongSessionMap})
+         */
+        private void removeKey(long chatId) {
+            int gap = (int) LongSessionMap.mix(chatId) & mask;
+            while (tableKeys[gap] != chatId || tableRefs[gap] == 0) {
+                gap = (gap + 1) & mask;
+            }
+            int next = (gap + 1) & mask;
+            while (tableRefs[next] != 0) {
+                int home = (int) LongSessionMap.mix(tableKeys[next]) & mask;
+                if (((next - home) & mask) >= ((next - gap) & mask)) {
+                    tableKeys[gap] = tableKeys[next];
+                    tableRefs[gap] = tableRefs[next];
+                    gap = next;
+                }
+                next = (next + 1) & mask;
+            }
+            tableRefs[gap] = 0;
+        }
+
+        private void rehash(int capacity) {
+            allocateTable(capacity);
+            for (int chat = 0; chat < size; chat++) {
+                insert(chatIds[chat], chat);
+            }
+        }
+
+        private void allocateTable(int capacity) {
+            tableKeys = new long[capacity];
+            tableRefs = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        private long bucketPosition(int bucket) {
+            return SPILL_HEADER_BYTES + ((long) index * spillBucketsPerStripe + bucket) * spillBucketBytes;
+        }
+
+        /**
+         * Ищет ячейку чата в своей части файла вытеснения
+         * @return номер ячейки или -1
+         */
+        private int findSpilled(long chatId) {
+            int home = (int) ((LongSessionMap.mix(chatId) & Long.MAX_VALUE) % spillBucketsPerStripe);
+            ByteBuffer key = ByteBuffer.allocate(Long.BYTES + Integer.BYTES);
+            try {
+                for (int probe = 0; probe < SPILL_PROBE; probe++) {
+                    int bucket = (home + probe) % spillBucketsPerStripe;
+                    key.clear();
+                    spill.read(key, bucketPosition(bucket));
+                    key.flip();
+                    if (key.remaining() < key.capacity()) {
+                        // Ячейка за концом файла: в нее еще ничего не записывалось
+                        return -1;
+                    }
+                    long storedId = key.getLong();
+                    int storedCount = key.getInt();
+                    if (storedCount == 0) {
+                        return -1;
+                    }
+                    if (storedId == chatId) {
+                        return bucket;
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Ошибка чтения файла истории: {}", e.getMessage());
+            }
+            return -1;
+        }
+
+        private void readSpilled(int chat) {
+            int bucket = findSpilled(chatIds[chat]);
+            if (bucket < 0) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(spillBucketBytes);
+            try {
+                spill.read(buffer, bucketPosition(bucket));
+                buffer.flip();
+                buffer.getLong();
+                int count = Math.min(buffer.getInt(), depth);
+                if (buffer.remaining() < count * recordInts * Integer.BYTES) {
+                    return;
+                }
+                buffer.asIntBuffer().get(data, chat * chatInts, count * recordInts);
+                heads[chat] = 0;
+                counts[chat] = count;
+            } catch (IOException e) {
+                logger.warn("Ошибка чтения файла истории: {}", e.getMessage());
+            }
+        }
+
+        /**
+         * Записывает кольцо в ячейку чата; если ее нет - в свободную ячейку
+         * или вместо ячейки с самым давним последним результатом
+         */
+        private void writeSpilled(int chat) {
+            long chatId = chatIds[chat];
+            int home = (int) ((LongSessionMap.mix(chatId) & Long.MAX_VALUE) % spillBucketsPerStripe);
+            ByteBuffer buffer = ByteBuffer.allocate(spillBucketBytes);
+            try {
+                int target = -1;
+                int oldestMinute = Integer.MAX_VALUE;
+                for (int probe = 0; probe < SPILL_PROBE; probe++) {
+                    int bucket = (home + probe) % spillBucketsPerStripe;
+                    buffer.clear();
+                    spill.read(buffer, bucketPosition(bucket));
+                    buffer.flip();
+                    if (buffer.remaining() < spillBucketBytes) {
+                        target = bucket;
+                        break;
+                    }
+                    long storedId = buffer.getLong();
+                    int storedCount = buffer.getInt();
+                    if (storedCount == 0 || storedId == chatId) {
+                        target = bucket;
+                        break;
+                    }
+                    // Время последней записи ячейки: записи хранятся от старой к новой
+                    int minute = buffer.getInt(Long.BYTES + Integer.BYTES
+                            + ((Math.min(storedCount, depth) - 1) * recordInts + TIME) * Integer.BYTES);
+                    if (minute < oldestMinute) {
+                        target = bucket;
+                        oldestMinute = minute;
+                    }
+                }
+
+                buffer.clear();
+                buffer.putLong(chatId).putInt(counts[chat]);
+                int[] records = copy(chat);
+                buffer.asIntBuffer().put(records);
+                // Ячейка пишется целиком, чтобы у последней ячейки файла не оставалось короткого хвоста
+                buffer.rewind();
+                spill.write(buffer, bucketPosition(target));
+            } catch (IOException e) {
+                logger.warn("Ошибка записи файла истории, история чата {} потеряна: {}", chatId, e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package org.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Потоковая статистика завершенных тестов.
+ * Обновляется при каждом завершении теста без блокировок: гистограммы баллов хранятся
+ * в массивах, индексированных баллом, счетчики - в LongAdder, а число завершений за
+ * последний час и сутки - в поминутных скользящих окнах. Отчет строится только
+ * из этих агрегатов, поэтому его стоимость не зависит от числа завершенных тестов.
+ */
+public class ScreeningStats {
+    private static final int HOUR_MINUTES = 60;
+    private static final int DAY_MINUTES = (int) TimeUnit.DAYS.toMinutes(1);
+
+    // Максимальный размер гистограммы: баллы за пределами диапазона не попадают в гистограмму
+    private static final int MAX_HISTOGRAM_SIZE = 1024;
+
+    // Максимальная длина отчета (ограничение сообщения Telegram)
+    private static final int MAX_REPORT_LENGTH = 4000;
+
+    // Статистика по названиям тестов: перезагрузка каталога не разделяет счетчики теста
+    private final ConcurrentMap<String, TestStats> tests = new ConcurrentHashMap<>();
+
+    /**
+     * Учесть завершенный тест
+     * @param session завершенная сессия
+     * @param diagnosis результат диагностики
+     * @param catalog текущая версия каталога (по ней выбирается версия теста для гистограмм)
+     */
+    public void record(DiagnosisSession session, String diagnosis, TestCatalog catalog) {
+        long now = System.currentTimeMillis();
+        DiagnosticTest test = session.getTest();
+        TestStats stats = tests.computeIfAbsent(test.getTestName(), name -> new TestStats());
+        stats.completed.increment();
+        stats.scoreSum.add(session.getTotalScore());
+        stats.window.increment(now);
+        ScoreHistograms histograms = stats.histogramsFor(test, catalog);
+        if (histograms != null) {
+            increment(histograms.totalScores, session.getTotalScore() - test.getMinScore());
+            for (int q = 0; q < histograms.parameterScores.length; q++) {
+                int answer = session.getAnswerIndex(q);
+                if (answer >= 0) {
+                    DiagnosticQuestion question = test.getQuestion(q);
+                    increment(histograms.parameterScores[q], question.getAnswerValue(answer) - question.getMinValue());
+                }
+            }
+        }
+        DiagnosisStats diagnosisStats = stats.diagnoses.computeIfAbsent(diagnosis, key -> new DiagnosisStats());
+        diagnosisStats.completed.increment();
+        diagnosisStats.window.increment(now);
+    }
+
+    private static void increment(AtomicLongArray histogram, int index) {
+        if (index >= 0 && index < histogram.length()) {
+            histogram.incrementAndGet(index);
+        }
+    }
+
+    /**
+     * Формирует текстовый отчет для команды /stats
+     * @return отчет
+     */
+    public String report() {
+        if (tests.isEmpty()) {
+            return "Статистика пока пуста: завершенных тестов нет";
+        }
+        long now = System.currentTimeMillis();
+        StringBuilder text = new StringBuilder("Статистика завершенных тестов\n");
+        for (TestStats stats : tests.values()) {
+            ScoreHistograms histograms = stats.histograms;
+            if (histograms == null) {
+                // Первое завершение теста еще записывается
+                continue;
+            }
+            DiagnosticTest test = histograms.test;
+            long completed = stats.completed.sum();
+            text.append('\n').append(test.getTestName()).append(": ").append(completed)
+                    .append(" (за час ").append(stats.window.sum(now, HOUR_MINUTES))
+                    .append(", за сутки ").append(stats.window.sum(now, DAY_MINUTES)).append(")\n");
+            text.append("Средний балл: ")
+                    .append(String.format("%.1f", completed > 0 ? (double) stats.scoreSum.sum() / completed : 0))
+                    .append("\nСуммы баллов:");
+            appendHistogram(text, histograms.totalScores, test.getMinScore());
+            for (Map.Entry<String, DiagnosisStats> entry : stats.diagnoses.entrySet()) {
+                DiagnosisStats diagnosisStats = entry.getValue();
+                text.append("  ").append(entry.getKey()).append(": ").append(diagnosisStats.completed.sum())
+                        .append(" (за сутки ").append(diagnosisStats.window.sum(now, DAY_MINUTES)).append(")\n");
+            }
+            for (int q = 0; q < histograms.parameterScores.length; q++) {
+                DiagnosticQuestion question = test.getQuestion(q);
+                text.append("  ").append(question.getParameterName() != null
+                        ? question.getParameterName() : question.getQuestionText()).append(':');
+                appendHistogram(text, histograms.parameterScores[q], question.getMinValue());
+            }
+            if (text.length() > MAX_REPORT_LENGTH) {
+                text.setLength(MAX_REPORT_LENGTH);
+                text.append("\n...");
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Добавляет в отчет непустые ячейки гистограммы в виде "балл=количество"
+     */
+    private static void appendHistogram(StringBuilder text, AtomicLongArray histogram, int minValue) {
+        for (int i = 0; i < histogram.length(); i++) {
+            long count = histogram.get(i);
+            if (count > 0) {
+                text.append(' ').append(minValue + i).append('=').append(count);
+            }
+        }
+        text.append('\n');
+    }
+
+    private static AtomicLongArray histogram(int min, int max) {
+        return new AtomicLongArray(Math.min(max - min + 1, MAX_HISTOGRAM_SIZE));
+    }
+
+    /**
+     * Агрегаты одного теста (по названию, через все версии каталога)
+     */
+    private static final class TestStats {
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder scoreSum = new LongAdder();
+        private final SlidingWindowCounter window = new SlidingWindowCounter(DAY_MINUTES);
+        private final ConcurrentMap<String, DiagnosisStats> diagnoses = new ConcurrentHashMap<>();
+        // Гистограммы последней версии теста; записывается под блокировкой TestStats
+        private volatile ScoreHistograms histograms;
+
+        /**
+         * Гистограммы для версии теста завершенной сессии. Если структура теста изменилась,
+         * гистограммы начинаются заново, но только по версии из текущего каталога: сессии
+         * старой версии, завершенные после перезагрузки, не возвращают гистограммы к ней
+         * и в гистограммы не попадают.
+         * @param test тест завершенной сессии
+         * @param catalog текущая версия каталога
+         * @return гистограммы или null, если сессия относится к устаревшей версии теста
+         */
+        private ScoreHistograms histogramsFor(DiagnosticTest test, TestCatalog catalog) {
+            ScoreHistograms current = histograms;
+            if (current != null && current.test.getFingerprint() == test.getFingerprint()) {
+                return current;
+            }
+            synchronized (this) {
+                current = histograms;
+                if (current != null && current.test.getFingerprint() == test.getFingerprint()) {
+                    return current;
+                }
+                if (current != null && catalog.findByFingerprint(test.getFingerprint()) == null) {
+                    return null;
+                }
+                current = new ScoreHistograms(test);
+                histograms = current;
+                return current;
+            }
+        }
+    }
+
+    /**
+     * Гистограммы баллов одной версии теста
+     */
+    private static final class ScoreHistograms {
+        private final DiagnosticTest test;
+        // Гистограмма суммы баллов: индекс - балл минус минимальный балл теста
+        private final AtomicLongArray totalScores;
+        // Гистограммы баллов по параметрам: индекс - балл минус минимальный балл вопроса
+        private final AtomicLongArray[] parameterScores;
+
+        private ScoreHistograms(DiagnosticTest test) {
+            this.test = test;
+            this.totalScores = histogram(test.getMinScore(), test.getMaxScore());
+            this.parameterScores = new AtomicLongArray[test.getQuestionCount()];
+            for (int q = 0; q < parameterScores.length; q++) {
+                DiagnosticQuestion question = test.getQuestion(q);
+                parameterScores[q] = histogram(question.getMinValue(), question.getMaxValue());
+            }
+        }
+    }
+
+    /**
+     * Счетчики одного результата диагностики
+     */
+    private static final class DiagnosisStats {
+        private final LongAdder completed = new LongAdder();
+        private final SlidingWindowCounter window = new SlidingWindowCounter(DAY_MINUTES);
+    }
+}
@@ -0,0 +1,98 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Бинарный формат передачи сессий между узлами кластера.
+ * Тест сессии передается отпечатком структуры ({@link DiagnosticTest#getFingerprint()}),
+ * поэтому принимающий узел восстанавливает сессию только для той же версии теста.
+ *
+ * Формат: int "HNDF", int количество, затем для каждой сессии: long chatId, int отпечаток теста,
+ * long время начала, byte номер текущего вопроса, byte количество вопросов, по байту на ответ.
+ */
+public final class SessionHandoff {
+    private static final Logger logger = LoggerFactory.getLogger(SessionHandoff.class);
+
+    private static final int MAGIC = 0x484E4446; // "HNDF"
+
+    private SessionHandoff() {
+    }
+
+    /**
+     * Кодирует сессии для передачи
+     * @param sessions сессии (chatId -> сессия)
+     * @return данные для передачи
+     */
+    public static byte[] encode(Map<Long, DiagnosisSession> sessions) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + sessions.size() * 32);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(MAGIC);
+            out.writeInt(sessions.size());
+            for (Map.Entry<Long, DiagnosisSession> entry : sessions.entrySet()) {
+                DiagnosisSession session = entry.getValue();
+                int questions = session.getTotalQuestions();
+                out.writeLong(entry.getKey());
+                out.writeInt(session.getTest().getFingerprint());
+                out.writeLong(session.getStartedMillis());
+                out.writeByte(session.getCurrentQuestionNumber());
+                out.writeByte(questions);
+                for (int q = 0; q < questions; q++) {
+                    out.writeByte(session.getAnswerIndex(q));
+                }
+            }
+        } catch (IOException e) {
+            // Запись в память не выбрасывает IOException
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Восстанавливает переданные сессии. Сессии тестов, которых нет в каталоге
+     * (или которые в нем изменились), пропускаются.
+     * @param input данные
+     * @param catalog каталог тестов принимающего узла
+     * @return сессии (chatId -> сессия)
+     * @throws IOException если данные повреждены
+     */
+    public static Map<Long, DiagnosisSession> decode(InputStream input, TestCatalog catalog) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Неизвестный формат передачи сессий");
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Некорректное количество сессий: " + count);
+        }
+        Map<Long, DiagnosisSession> sessions = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            long chatId = in.readLong();
+            int fingerprint = in.readInt();
+            long startedMillis = in.readLong();
+            int currentQuestion = in.readUnsignedByte();
+            byte[] answers = new byte[in.readUnsignedByte()];
+            in.readFully(answers);
+
+            DiagnosticTest test = catalog.findByFingerprint(fingerprint);
+            if (test == null) {
+                logger.warn("Сессия {} относится к тесту, которого нет в каталоге узла, пропущена", chatId);
+                continue;
+            }
+            try {
+                sessions.put(chatId, new DiagnosisSession(test, currentQuestion, answers, startedMillis));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Сессия {} не соответствует тесту \"{}\", пропущена", chatId, test.getTestName());
+            }
+        }
+        return sessions;
+    }
+}
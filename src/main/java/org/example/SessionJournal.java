@@ -0,0 +1,507 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Журнал переходов сессий (старт, ответ, завершение, отмена) для восстановления после перезапуска.
+ * Записи фиксированного размера добавляются в сегменты, отображенные в память,
+ * поэтому запись не требует системных вызовов. Фоновый поток сбрасывает изменения на диск
+ * группами раз в fsyncInterval, а раз в snapshotInterval сохраняет компактный снимок всех
+ * сессий и удаляет устаревшие сегменты. При запуске загружается последний снимок
+ * и поверх него проигрываются записи более новых сегментов.
+ */
+public class SessionJournal implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(SessionJournal.class);
+
+    // Типы записей журнала (0 - незаписанная область сегмента)
+    private static final byte START = 1;
+    private static final byte ANSWER = 2;
+    private static final byte COMPLETE = 3;
+    private static final byte CANCEL = 4;
+
+    // Формат записи: тип, вопрос, ответ, резерв, отпечаток теста, chatId, время, CRC32C первых 24 байт
+    private static final int RECORD_SIZE = 32;
+    private static final int CHECKSUM_OFFSET = 24;
+
+    private static final int SNAPSHOT_MAGIC = 0x534E4150; // "SNAP"
+
+    // Снимок: magic, затем записи сессий, каждая начинается с SNAPSHOT_ENTRY (chatId, время начала,
+    // отпечаток теста, текущий вопрос, число ответов, ответы); нулевой байт завершает снимок
+    private static final byte SNAPSHOT_ENTRY = 1;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long fsyncIntervalMillis;
+    private final long snapshotIntervalMillis;
+
+    private final ScheduledExecutorService background;
+    private final CRC32C checksum = new CRC32C();
+
+    // Текущий сегмент; изменяется под блокировкой this
+    private FileChannel channel;
+    private MappedByteBuffer segment;
+    private long segmentSequence;
+    private boolean dirty;
+
+    // Каталог на момент восстановления: тесты сессий ищутся в нем по отпечатку
+    private TestCatalog catalog;
+
+    // Хранилище, известное после восстановления (для снимков)
+    private SessionStore store;
+
+    /**
+     * @param directory каталог журнала
+     * @param segmentSize размер одного сегмента, байт
+     * @param fsyncIntervalMillis период сброса изменений на диск, мс
+     * @param snapshotIntervalMillis период создания снимков, мс
+     */
+    public SessionJournal(Path directory, int segmentSize, long fsyncIntervalMillis, long snapshotIntervalMillis) {
+        if (segmentSize < RECORD_SIZE || fsyncIntervalMillis <= 0 || snapshotIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Некорректные параметры журнала сессий");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize - segmentSize % RECORD_SIZE;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+        this.snapshotIntervalMillis = snapshotIntervalMillis;
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Создает журнал по параметрам из config.env
+     * @param config конфигурация бота
+     * @return журнал или null, если JOURNAL_DIR не задан (журнал отключен)
+     */
+    public static SessionJournal fromConfig(BotConfig config) {
+        String dir = config.get("JOURNAL_DIR");
+        if (dir == null) {
+            return null;
+        }
+        return new SessionJournal(Paths.get(dir),
+                config.getInt("JOURNAL_SEGMENT_MB", 64) << 20,
+                config.getLong("JOURNAL_FSYNC_MS", 50),
+                TimeUnit.SECONDS.toMillis(config.getLong("JOURNAL_SNAPSHOT_INTERVAL_SECONDS", 300)));
+    }
+
+    /**
+     * Восстанавливает сессии из снимка и журнала, затем открывает новый сегмент
+     * и запускает фоновый сброс и создание снимков.
+     * Сессии восстанавливаются по тестам текущего каталога с тем же отпечатком
+     * ({@link DiagnosticTest#getFingerprint()}); сессии тестов, которые изменились
+     * после записи (порядок ответов, баллы, вопросы), пропускаются.
+     * @param catalog текущий каталог тестов
+     * @param store хранилище, в которое помещаются восстановленные сессии
+     * @return количество восстановленных сессий
+     * @throws IOException при ошибке чтения или создания файлов журнала
+     */
+    public int recover(TestCatalog catalog, SessionStore store) throws IOException {
+        Map<Long, DiagnosisSession> sessions = new HashMap<>();
+        long nextSegment;
+        long started = System.nanoTime();
+        synchronized (this) {
+            nextSegment = readAll(catalog, store, sessions);
+        }
+        // Сессии помещаются в хранилище вне блокировки журнала: очистка хранилища записывает
+        // удаление под блокировкой сегмента, и обратный порядок блокировок привел бы к взаимоблокировке
+        sessions.forEach(store::put);
+        logger.info("Восстановлено сессий из журнала: {} за {} мс",
+                sessions.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+
+        synchronized (this) {
+            openSegment(nextSegment);
+        }
+        // Сразу сворачиваем проигранные сегменты в снимок, чтобы следующий запуск был быстрее
+        background.execute(this::snapshotSafely);
+        background.scheduleWithFixedDelay(this::flushSafely,
+                fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        background.scheduleWithFixedDelay(this::snapshotSafely,
+                snapshotIntervalMillis, snapshotIntervalMillis, TimeUnit.MILLISECONDS);
+        return sessions.size();
+    }
+
+    /**
+     * Читает снимок и сегменты журнала
+     * @return номер следующего сегмента
+     */
+    private long readAll(TestCatalog catalog, SessionStore store, Map<Long, DiagnosisSession> sessions)
+            throws IOException {
+        Files.createDirectories(directory);
+        this.store = store;
+        this.catalog = catalog;
+
+        // Недописанные снимки остаются, если процесс остановился во время их создания
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "snapshot-*.tmp")) {
+            for (Path file : stale) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        long snapshotSequence = latestSequence("snapshot-", ".snap");
+        if (snapshotSequence >= 0) {
+            readSnapshot(snapshotPath(snapshotSequence), sessions);
+        }
+        long lastSegment = -1;
+        for (long sequence : sequences("journal-", ".log")) {
+            if (sequence >= snapshotSequence) {
+                replaySegment(segmentPath(sequence), sessions);
+            }
+            lastSegment = sequence;
+        }
+        return Math.max(lastSegment, snapshotSequence) + 1;
+    }
+
+    /**
+     * Записать начало теста
+     * @param chatId идентификатор чата
+     * @param test начатый тест
+     */
+    public void logStart(long chatId, DiagnosticTest test) {
+        append(START, chatId, test.getFingerprint(), 0, 0);
+    }
+
+    /**
+     * Записать ответ на вопрос
+     * @param chatId идентификатор чата
+     * @param questionIndex индекс вопроса (начиная с 0)
+     * @param answerIndex индекс выбранного ответа (начиная с 0)
+     */
+    public void logAnswer(long chatId, int questionIndex, int answerIndex) {
+        append(ANSWER, chatId, 0, questionIndex, answerIndex);
+    }
+
+    /**
+     * Записать завершение теста
+     * @param chatId идентификатор чата
+     */
+    public void logComplete(long chatId) {
+        append(COMPLETE, chatId, 0, 0, 0);
+    }
+
+    /**
+     * Записать отмену теста
+     * @param chatId идентификатор чата
+     */
+    public void logCancel(long chatId) {
+        append(CANCEL, chatId, 0, 0, 0);
+    }
+
+    private synchronized void append(byte type, long chatId, int fingerprint, int questionIndex, int answerIndex) {
+        if (segment == null) {
+            return;
+        }
+        try {
+            if (segment.remaining() < RECORD_SIZE) {
+                openSegment(segmentSequence + 1);
+            }
+            int position = segment.position();
+            segment.put(type)
+                    .put((byte) questionIndex)
+                    .put((byte) answerIndex)
+                    .put((byte) 0)
+                    .putInt(fingerprint)
+                    .putLong(chatId)
+                    .putLong(System.currentTimeMillis());
+            segment.putInt(checksum(segment, position));
+            segment.putInt(0);
+            dirty = true;
+        } catch (IOException e) {
+            // Ошибка журнала не должна прерывать обработку сообщений пользователя
+            logger.error("Ошибка записи в журнал сессий", e);
+        }
+    }
+
+    private int checksum(ByteBuffer buffer, int position) {
+        checksum.reset();
+        ByteBuffer record = buffer.duplicate();
+        record.position(position).limit(position + CHECKSUM_OFFSET);
+        checksum.update(record);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Закрывает текущий сегмент и открывает новый с указанным номером (под блокировкой this)
+     */
+    private void openSegment(long sequence) throws IOException {
+        if (segment != null) {
+            segment.force();
+            channel.close();
+        }
+        channel = FileChannel.open(segmentPath(sequence),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        segmentSequence = sequence;
+        dirty = false;
+    }
+
+    private void flushSafely() {
+        MappedByteBuffer toFlush;
+        synchronized (this) {
+            if (!dirty || segment == null) {
+                return;
+            }
+            dirty = false;
+            toFlush = segment;
+        }
+        try {
+            // Сброс выполняется вне блокировки: запись в журнал в это время не останавливается
+            toFlush.force();
+        } catch (Exception e) {
+            logger.error("Ошибка сброса журнала сессий на диск", e);
+        }
+    }
+
+    private void snapshotSafely() {
+        try {
+            snapshot();
+        } catch (Exception e) {
+            logger.error("Ошибка создания снимка сессий", e);
+        }
+    }
+
+    /**
+     * Создает снимок всех сессий и удаляет сегменты, целиком покрытые снимком.
+     * Записи, сделанные во время создания снимка, попадают в новый сегмент и при
+     * восстановлении проигрываются поверх снимка (проигрывание идемпотентно).
+     */
+    void snapshot() throws IOException {
+        long sequence;
+        synchronized (this) {
+            if (segment == null) {
+                return;
+            }
+            openSegment(segmentSequence + 1);
+            sequence = segmentSequence;
+        }
+
+        Path target = snapshotPath(sequence);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        int[] count = new int[1];
+        try (FileChannel snapshotChannel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Channels.newOutputStream(snapshotChannel), 1 << 16))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            IOException[] failure = new IOException[1];
+            byte[] answers = new byte[DiagnosticTest.MAX_QUESTIONS];
+            store.forEach((session, chatId) -> {
+                if (failure[0] != null) {
+                    return;
+                }
+                try {
+                    writeSession(out, chatId, session, answers);
+                    count[0]++;
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            out.writeByte(0);
+            out.flush();
+            snapshotChannel.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        // Снимок сохранен: более старые снимки и сегменты больше не нужны
+        for (long old : sequences("journal-", ".log")) {
+            if (old < sequence) {
+                Files.deleteIfExists(segmentPath(old));
+            }
+        }
+        for (long old : sequences("snapshot-", ".snap")) {
+            if (old < sequence) {
+                Files.deleteIfExists(snapshotPath(old));
+            }
+        }
+        logger.info("Снимок сессий сохранен: {} сессий", count[0]);
+    }
+
+    /**
+     * Записывает сессию в снимок. Сессию в это время изменяет поток обработки ее чата,
+     * поэтому состояние читается одной копией под блокировкой сессии
+     * @param answers буфер ответов не короче {@link DiagnosticTest#MAX_QUESTIONS}
+     */
+    private static void writeSession(DataOutputStream out, long chatId, DiagnosisSession session,
+                                     byte[] answers) throws IOException {
+        int questions = session.getTotalQuestions();
+        int currentQuestion = session.copyState(answers);
+        out.writeByte(SNAPSHOT_ENTRY);
+        out.writeLong(chatId);
+        out.writeLong(session.getStartedMillis());
+        out.writeInt(session.getTest().getFingerprint());
+        out.writeByte(currentQuestion);
+        out.writeByte(questions);
+        out.write(answers, 0, questions);
+    }
+
+    private void readSnapshot(Path path, Map<Long, DiagnosisSession> sessions) throws IOException {
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16))) {
+            int magic = in.readInt();
+            if (magic != SNAPSHOT_MAGIC) {
+                throw new IOException("Неверный формат снимка сессий: " + path);
+            }
+            byte entry;
+            while ((entry = in.readByte()) != 0) {
+                if (entry != SNAPSHOT_ENTRY) {
+                    throw new IOException("Снимок сессий поврежден: " + path);
+                }
+                long chatId = in.readLong();
+                long startedMillis = in.readLong();
+                int fingerprint = in.readInt();
+                int currentQuestion = in.readUnsignedByte();
+                byte[] answers = new byte[in.readUnsignedByte()];
+                in.readFully(answers);
+                DiagnosticTest test = catalog.findByFingerprint(fingerprint);
+                if (test == null) {
+                    // Тест изменился или удален после создания снимка: ответы нельзя сопоставить
+                    logger.warn("Тест сессии {} из снимка изменился, сессия пропущена", chatId);
+                    continue;
+                }
+                try {
+                    sessions.put(chatId, new DiagnosisSession(test, currentQuestion, answers, startedMillis));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Сессия {} из снимка не соответствует тесту и пропущена", chatId);
+                }
+            }
+        } catch (EOFException e) {
+            throw new IOException("Снимок сессий поврежден: " + path, e);
+        }
+    }
+
+    private void replaySegment(Path path, Map<Long, DiagnosisSession> sessions) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            for (int position = 0; position + RECORD_SIZE <= buffer.limit(); position += RECORD_SIZE) {
+                byte type = buffer.get(position);
+                // Конец записанных данных или запись, оборванная при сбое
+                if (type == 0 || buffer.getInt(position + CHECKSUM_OFFSET) != checksum(buffer, position)) {
+                    break;
+                }
+                long chatId = buffer.getLong(position + 8);
+                if (type == START) {
+                    DiagnosticTest test = catalog.findByFingerprint(buffer.getInt(position + 4));
+                    if (test == null) {
+                        // Тест изменился после начала сессии: ответы сессии пропускаются вместе с ней
+                        sessions.remove(chatId);
+                        logger.warn("Тест сессии {} из журнала изменился, сессия пропущена", chatId);
+                    } else {
+                        DiagnosisSession session = new DiagnosisSession(test, buffer.getLong(position + 16));
+                        session.getNextQuestion();
+                        sessions.put(chatId, session);
+                    }
+                } else if (type == ANSWER) {
+                    replayAnswer(sessions.get(chatId),
+                            buffer.get(position + 1) & 0xFF, buffer.get(position + 2));
+                } else if (type == COMPLETE || type == CANCEL) {
+                    sessions.remove(chatId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Повторяет ответ, только если сессия ожидает именно этот вопрос.
+     * Это делает проигрывание поверх снимка идемпотентным.
+     */
+    private static void replayAnswer(DiagnosisSession session, int questionIndex, int answerIndex) {
+        if (session == null || session.getCurrentQuestionNumber() != questionIndex + 1) {
+            return;
+        }
+        DiagnosticQuestion question = session.getCurrentQuestion();
+        if (question == null || answerIndex < 0 || answerIndex >= question.getAnswerCount()) {
+            return;
+        }
+        session.answer(answerIndex);
+    }
+
+    private Path segmentPath(long sequence) {
+        return directory.resolve(String.format("journal-%016d.log", sequence));
+    }
+
+    private Path snapshotPath(long sequence) {
+        return directory.resolve(String.format("snapshot-%016d.snap", sequence));
+    }
+
+    private long latestSequence(String prefix, String suffix) throws IOException {
+        List<Long> found = sequences(prefix, suffix);
+        return found.isEmpty() ? -1 : found.get(found.size() - 1);
+    }
+
+    /**
+     * @return номера файлов вида prefix + номер + suffix в порядке возрастания
+     */
+    private List<Long> sequences(String prefix, String suffix) throws IOException {
+        List<Long> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String number = name.substring(prefix.length(), name.length() - suffix.length());
+                if (!number.isEmpty() && number.chars().allMatch(Character::isDigit)) {
+                    result.add(Long.parseLong(number));
+                }
+            }
+        }
+        Collections.sort(result);
+        return result;
+    }
+
+    @Override
+    public void close() {
+        // Даем дописать начатый снимок; периодические задачи после shutdown не запускаются
+        background.shutdown();
+        try {
+            if (!background.awaitTermination(10, TimeUnit.SECONDS)) {
+                background.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            background.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        closeSegment();
+    }
+
+    private synchronized void closeSegment() {
+        if (segment != null) {
+            try {
+                segment.force();
+                channel.close();
+            } catch (IOException e) {
+                logger.error("Ошибка закрытия журнала сессий", e);
+            }
+            segment = null;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package org.example;
+
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Хранилище активных сессий пользователей (chatId -> сессия).
+ * Реализации должны быть потокобезопасными: к хранилищу обращаются
+ * параллельно из потоков обработки обновлений.
+ */
+public interface SessionStore extends AutoCloseable {
+
+    /**
+     * Получить сессию и отметить обращение к ней
+     * @param chatId идентификатор чата
+     * @return сессия или null, если активной сессии нет
+     */
+    DiagnosisSession get(long chatId);
+
+    /**
+     * Сохранить сессию (заменяет существующую)
+     * @param chatId идентификатор чата
+     * @param session новая сессия
+     */
+    void put(long chatId, DiagnosisSession session);
+
+    /**
+     * Удалить сессию
+     * @param chatId идентификатор чата
+     * @return удаленная сессия или null, если ее не было
+     */
+    DiagnosisSession remove(long chatId);
+
+    /**
+     * @return количество активных сессий
+     */
+    int size();
+
+    /**
+     * Обойти все сессии (например, для снимка состояния).
+     * Сессии, изменяемые во время обхода, могут попасть в него в промежуточном состоянии.
+     * @param action действие для каждой пары сессия/chatId
+     */
+    void forEach(ObjLongConsumer<DiagnosisSession> action);
+
+    /**
+     * Останавливает фоновые задачи хранилища
+     */
+    @Override
+    void close();
+}
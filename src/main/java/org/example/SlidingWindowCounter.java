@@ -0,0 +1,72 @@
+package org.example;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Счетчик событий в скользящем окне с поминутной гранулярностью.
+ * Окно хранится кольцом из минутных ячеек; в каждой ячейке упакованы номер минуты
+ * (старшие биты) и число событий (младшие биты), поэтому устаревшая ячейка
+ * сбрасывается и увеличивается одной операцией CAS без блокировок.
+ */
+public final class SlidingWindowCounter {
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final AtomicLongArray slots;
+
+    /**
+     * @param windowMinutes длина окна, минут
+     */
+    public SlidingWindowCounter(int windowMinutes) {
+        if (windowMinutes <= 0) {
+            throw new IllegalArgumentException("Длина окна должна быть положительной");
+        }
+        this.slots = new AtomicLongArray(windowMinutes);
+    }
+
+    /**
+     * Учесть событие в момент nowMillis
+     * @param nowMillis текущее время, мс
+     */
+    public void increment(long nowMillis) {
+        long minute = nowMillis / MINUTE_MILLIS;
+        int slot = (int) (minute % slots.length());
+        while (true) {
+            long current = slots.get(slot);
+            long next;
+            if (current >>> COUNT_BITS != minute) {
+                next = (minute << COUNT_BITS) | 1;
+            } else if ((current & COUNT_MASK) == COUNT_MASK) {
+                // Ячейка переполнена: дальнейшие события этой минуты не учитываются
+                return;
+            } else {
+                next = current + 1;
+            }
+            if (slots.compareAndSet(slot, current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Количество событий за последние minutes минут (включая текущую)
+     * @param nowMillis текущее время, мс
+     * @param minutes длина интервала, минут (не больше длины окна)
+     * @return количество событий
+     */
+    public long sum(long nowMillis, int minutes) {
+        long minute = nowMillis / MINUTE_MILLIS;
+        long oldest = minute - Math.min(minutes, slots.length()) + 1;
+        long total = 0;
+        for (int slot = 0; slot < slots.length(); slot++) {
+            long value = slots.get(slot);
+            long slotMinute = value >>> COUNT_BITS;
+            if (slotMinute >= oldest && slotMinute <= minute) {
+                total += value & COUNT_MASK;
+            }
+        }
+        return total;
+    }
+}
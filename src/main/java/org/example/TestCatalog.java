@@ -0,0 +1,364 @@
+package org.example;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Неизменяемая версия каталога диагностических тестов.
+ * Новая версия каталога полностью загружается и проверяется до того, как заменить текущую,
+ * поэтому бот всегда видит либо старый, либо новый каталог целиком.
+ * Сессии хранят ссылку на свой тест и продолжаются по той версии, с которой начались.
+ * Каталог создается из JSON (с проверкой) или из скомпилированного при сборке
+ * {@link BinaryCatalog}, тесты которого декодируются только при обращении.
+ */
+public final class TestCatalog {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<List<DiagnosticTest>> TEST_LIST = new TypeReference<>() {};
+
+    // Команды бота, которые не могут быть назначены тестам
+    private static final Set<String> RESERVED_COMMANDS = Set.of("/start", "/help", "/cancel", "/stats", "/history");
+
+    // Строка /cancel в текстах /start и /help и строки /history, вставляемые перед ней
+    private static final String CANCEL_LINE = "\n/cancel - ";
+    private static final String START_HISTORY_LINE = "/history - Ваши последние результаты\n";
+    private static final String HELP_HISTORY_LINE = "/history - Ваши последние результаты и их динамика\n";
+
+    // Предельная длина списка тестов в меню: сообщение Telegram ограничено 4096 символами
+    private static final int MENU_LIMIT = 3500;
+
+    // Номер версии каталога (увеличивается при каждой перезагрузке)
+    private final long version;
+
+    // Тесты каталога (неизменяемый список)
+    private final List<DiagnosticTest> tests;
+
+    // Скомпилированный каталог, по которому выполняется поиск (null - каталог загружен из JSON)
+    private final BinaryCatalog binary;
+
+    // Индекс команда -> тест для маршрутизации сообщений (только для каталога из JSON)
+    private final Map<String, DiagnosticTest> testsByCommand;
+
+    // Индекс отпечаток -> тест для ответов inline-клавиатуры (только для каталога из JSON)
+    private final Map<Integer, DiagnosticTest> testsByFingerprint;
+
+    // Тексты /start и /help, сформированные один раз для этой версии каталога
+    private final String startText;
+    private final String helpText;
+
+    // Те же тексты со строкой команды /history (для ботов с включенной историей результатов)
+    private final String startTextWithHistory;
+    private final String helpTextWithHistory;
+
+    /**
+     * @param version номер версии каталога
+     * @param tests тесты каталога
+     * @throws IllegalArgumentException если каталог пуст, тест не имеет названия или вопросов,
+     *                                  либо названия (в том числе по ключу журнала сессий)
+     *                                  или команды тестов повторяются
+     */
+    public TestCatalog(long version, List<DiagnosticTest> tests) {
+        this.version = version;
+        this.tests = List.copyOf(tests);
+        this.binary = null;
+        validate(this.tests);
+        this.testsByCommand = new HashMap<>();
+        this.testsByFingerprint = new HashMap<>();
+        for (DiagnosticTest test : this.tests) {
+            if (test.getCommand() != null) {
+                testsByCommand.put(test.getCommand(), test);
+            }
+            if (testsByFingerprint.putIfAbsent(test.getFingerprint(), test) != null) {
+                throw new IllegalArgumentException("Совпадают отпечатки тестов \""
+                        + testsByFingerprint.get(test.getFingerprint()).getTestName()
+                        + "\" и \"" + test.getTestName() + "\"");
+            }
+        }
+        String menu = renderMenu(this.tests);
+        this.startText = "Добро пожаловать в медицинский диагностический бот!\n\n" +
+                "Используйте команды:\n" +
+                menu +
+                "/help - Показать справку\n" +
+                "/cancel - Отменить текущий тест";
+        this.helpText = "Справка по боту:\n\n" +
+                "Этот бот позволяет пройти медицинские диагностические тесты.\n\n" +
+                "Доступные команды:\n" +
+                menu +
+                "/help - Показать эту справку\n" +
+                "/cancel - Отменить текущий тест\n\n" +
+                "Во время прохождения теста просто вводите номер выбранного ответа.\n" +
+                "Баллы всех параметров можно ввести одним сообщением в порядке вопросов: после команды " +
+                "теста или в ответ на первый вопрос (например, \"4 5 6\"). Если у параметров есть " +
+                "обозначения, баллы можно указать с ними (например, \"E4V5M6\").";
+        this.startTextWithHistory = withHistoryLine(startText, START_HISTORY_LINE);
+        this.helpTextWithHistory = withHistoryLine(helpText, HELP_HISTORY_LINE);
+    }
+
+    /**
+     * Каталог поверх скомпилированного файла. Проверка выполнена при компиляции,
+     * поэтому при загрузке тесты не декодируются.
+     * @param version номер версии каталога
+     * @param binary скомпилированный каталог
+     */
+    private TestCatalog(long version, BinaryCatalog binary) {
+        this.version = version;
+        this.binary = binary;
+        this.tests = Collections.unmodifiableList(binary.asList());
+        this.testsByCommand = null;
+        this.testsByFingerprint = null;
+        this.startText = binary.getStartText();
+        this.helpText = binary.getHelpText();
+        this.startTextWithHistory = withHistoryLine(startText, START_HISTORY_LINE);
+        this.helpTextWithHistory = withHistoryLine(helpText, HELP_HISTORY_LINE);
+    }
+
+    /**
+     * Вставляет строку команды /history перед строкой /cancel, которая идет после списка тестов
+     */
+    private static String withHistoryLine(String text, String line) {
+        int cancel = text.lastIndexOf(CANCEL_LINE);
+        if (cancel < 0) {
+            return text;
+        }
+        return text.substring(0, cancel + 1) + line + text.substring(cancel + 1);
+    }
+
+    /**
+     * Создает каталог поверх скомпилированного файла
+     * @param version номер версии каталога
+     * @param binary скомпилированный каталог
+     * @return каталог
+     */
+    public static TestCatalog fromBinary(long version, BinaryCatalog binary) {
+        return new TestCatalog(version, binary);
+    }
+
+    /**
+     * Формирует строки меню "команда - описание" для тестов, доступных по команде
+     */
+    private static String renderMenu(List<DiagnosticTest> tests) {
+        StringBuilder menu = new StringBuilder();
+        int shown = 0;
+        int total = 0;
+        for (DiagnosticTest test : tests) {
+            if (test.getCommand() == null) {
+                continue;
+            }
+            total++;
+            String line = test.getCommand() + " - " + test.getDescription() + "\n";
+            if (menu.length() + line.length() <= MENU_LIMIT) {
+                menu.append(line);
+                shown++;
+            }
+        }
+        if (shown < total) {
+            menu.append("...и еще ").append(total - shown).append(" тестов\n");
+        }
+        return menu.toString();
+    }
+
+    private static void validate(List<DiagnosticTest> tests) {
+        if (tests.isEmpty()) {
+            throw new IllegalArgumentException("Каталог не содержит тестов");
+        }
+        Set<String> names = new HashSet<>();
+        Set<String> commands = new HashSet<>();
+        for (DiagnosticTest test : tests) {
+            if (test.getTestName() == null || test.getTestName().isBlank()) {
+                throw new IllegalArgumentException("Не указано название теста");
+            }
+            if (!names.add(test.getTestName())) {
+                throw new IllegalArgumentException("Повторяющееся название теста: " + test.getTestName());
+            }
+            String command = test.getCommand();
+            if (command != null) {
+                if (!command.matches("/[A-Za-z0-9_]{1,32}")) {
+                    throw new IllegalArgumentException("Некорректная команда теста \"" + test.getTestName()
+                            + "\": " + command);
+                }
+                if (RESERVED_COMMANDS.contains(command) || !commands.add(command)) {
+                    throw new IllegalArgumentException("Команда " + command + " уже используется");
+                }
+            }
+            if (test.getQuestionCount() == 0) {
+                throw new IllegalArgumentException("Тест \"" + test.getTestName() + "\" не содержит вопросов");
+            }
+            if (test.getQuestionCount() > DiagnosticTest.MAX_QUESTIONS) {
+                throw new IllegalArgumentException("Слишком много вопросов в тесте \"" + test.getTestName()
+                        + "\": " + test.getQuestionCount() + " (максимум " + DiagnosticTest.MAX_QUESTIONS + ")");
+            }
+            for (DiagnosticQuestion question : test.getQuestions()) {
+                if (question.getAnswerCount() == 0) {
+                    throw new IllegalArgumentException("Вопрос \"" + question.getQuestionText()
+                            + "\" теста \"" + test.getTestName() + "\" не содержит вариантов ответа");
+                }
+            }
+        }
+    }
+
+    /**
+     * Загружает каталог из ресурса в classpath
+     * @param resource путь к ресурсу
+     * @return каталог версии 0
+     * @throws IOException если ресурс не найден или имеет неверный формат
+     */
+    public static TestCatalog fromResource(String resource) throws IOException {
+        try (InputStream is = TestCatalog.class.getResourceAsStream(resource)) {
+            if (is == null) {
+                throw new IOException("Файл конфигурации не найден: " + resource);
+            }
+            return create(0, parse(is), resource);
+        }
+    }
+
+    /**
+     * Загружает каталог, встроенный в приложение: скомпилированный при сборке
+     * (отображается в память), а без него - разбором tests_config.json
+     * @return каталог версии 0
+     * @throws IOException если каталог не найден или имеет неверный формат
+     */
+    public static TestCatalog fromClasspath() throws IOException {
+        BinaryCatalog binary = BinaryCatalog.fromResource(BinaryCatalog.RESOURCE);
+        return binary != null ? fromBinary(0, binary) : fromResource("/tests_config.json");
+    }
+
+    /**
+     * Загружает каталог из всех файлов *.json каталога (в порядке имен файлов)
+     * @param directory каталог с файлами тестов
+     * @param version номер версии нового каталога
+     * @return загруженный каталог
+     * @throws IOException при ошибке чтения или неверном формате файлов
+     */
+    public static TestCatalog fromDirectory(Path directory, long version) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            stream.forEach(files::add);
+        }
+        files.sort(null);
+
+        List<DiagnosticTest> tests = new ArrayList<>();
+        for (Path file : files) {
+            try (InputStream is = Files.newInputStream(file)) {
+                tests.addAll(parse(is));
+            } catch (IOException e) {
+                throw new IOException("Ошибка чтения файла тестов " + file + ": " + e.getMessage(), e);
+            }
+        }
+        return create(version, tests, directory.toString());
+    }
+
+    private static TestCatalog create(long version, List<DiagnosticTest> tests, String source) throws IOException {
+        try {
+            return new TestCatalog(version, tests);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Некорректный каталог тестов " + source + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Разбирает тесты за один потоковый проход.
+     * Поддерживает два формата:
+     * 1. Прямой массив тестов: [{...}, {...}]
+     * 2. Объект с полем tests: {"tests": [...]}
+     * @param is поток с JSON
+     * @return список тестов
+     * @throws IOException при неверном формате
+     */
+    static List<DiagnosticTest> parse(InputStream is) throws IOException {
+        try (JsonParser parser = MAPPER.getFactory().createParser(is)) {
+            JsonToken token = parser.nextToken();
+            if (token == JsonToken.START_ARRAY) {
+                // Формат: массив тестов
+                return MAPPER.readValue(parser, TEST_LIST);
+            }
+            if (token == JsonToken.START_OBJECT) {
+                // Формат: объект с полем tests; остальные поля пропускаются без разбора
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("tests".equals(field)) {
+                        return MAPPER.readValue(parser, TEST_LIST);
+                    }
+                    parser.skipChildren();
+                }
+            }
+            throw new IOException("Неверный формат конфигурационного файла");
+        }
+    }
+
+    /**
+     * @return номер версии каталога
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return неизменяемый список тестов (для скомпилированного каталога элементы декодируются при обращении)
+     */
+    public List<DiagnosticTest> getTests() {
+        return tests;
+    }
+
+    /**
+     * Найти тест по команде запуска
+     * @param command текст команды (например, "/glasgow")
+     * @return тест или null, если команда не назначена
+     */
+    public DiagnosticTest findByCommand(String command) {
+        return binary != null ? binary.findByCommand(command) : testsByCommand.get(command);
+    }
+
+    /**
+     * Найти тест по отпечатку структуры
+     * @param fingerprint отпечаток теста
+     * @return тест или null, если в этой версии каталога такого теста нет
+     */
+    public DiagnosticTest findByFingerprint(int fingerprint) {
+        return binary != null ? binary.findByFingerprint(fingerprint) : testsByFingerprint.get(fingerprint);
+    }
+
+    /**
+     * @return текст приветствия /start со списком тестов
+     */
+    public String getStartText() {
+        return startText;
+    }
+
+    /**
+     * @param withHistory перечислить команду /history
+     * @return текст приветствия /start со списком тестов
+     */
+    public String getStartText(boolean withHistory) {
+        return withHistory ? startTextWithHistory : startText;
+    }
+
+    /**
+     * @return текст справки /help со списком тестов
+     */
+    public String getHelpText() {
+        return helpText;
+    }
+
+    /**
+     * @param withHistory перечислить команду /history
+     * @return текст справки /help со списком тестов
+     */
+    public String getHelpText(boolean withHistory) {
+        return withHistory ? helpTextWithHistory : helpText;
+    }
+}
@@ -0,0 +1,70 @@
+package org.example;
+
+/**
+ * Ограничитель частоты по алгоритму "корзина токенов".
+ * Не потокобезопасен: используется из одного потока.
+ */
+public final class TokenBucket {
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param ratePerSecond скорость пополнения, токенов в секунду
+     * @param burst максимальное количество накопленных токенов
+     * @param nowNanos текущее время, нс
+     */
+    public TokenBucket(double ratePerSecond, int burst, long nowNanos) {
+        if (ratePerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Скорость и размер корзины должны быть положительными");
+        }
+        this.tokensPerNano = ratePerSecond / 1_000_000_000d;
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Попытаться взять один токен
+     * @param nowNanos текущее время, нс
+     * @return 0, если токен взят, иначе время ожидания следующего токена, нс
+     */
+    public long tryAcquire(long nowNanos) {
+        if (nowNanos < lastRefillNanos) {
+            // Действует пауза: ждем ее окончания и накопления одного токена
+            return lastRefillNanos - nowNanos + (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+        refill(nowNanos);
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / tokensPerNano));
+    }
+
+    /**
+     * Вернуть ранее взятый токен, если он не был использован
+     */
+    public void refund() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    /**
+     * Запретить выдачу токенов до указанного момента (например, по retry_after от сервера)
+     * @param untilNanos время, до которого токены не выдаются, нс
+     */
+    public void pauseUntil(long untilNanos) {
+        tokens = 0;
+        lastRefillNanos = Math.max(lastRefillNanos, untilNanos);
+    }
+
+    private void refill(long nowNanos) {
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+            lastRefillNanos = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package org.example;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Отсеивание повторно доставленных обновлений по update_id.
+ * Telegram выдает update_id по возрастанию, поэтому достаточно помнить окно из windowSize
+ * последних идентификаторов: битовое кольцо, где бит i соответствует update_id по модулю
+ * размера окна. Память постоянна (windowSize / 8 байт) при любом потоке обновлений.
+ * Идентификатор ниже окна отбрасывается как устаревший повтор, состояние окна при этом
+ * не меняется. Новой последовательностью он считается только после недели без обновлений:
+ * после такого простоя Telegram выбирает случайный начальный update_id, который может
+ * оказаться меньше прежних. Скачок далеко вперед окно сбрасывает и так.
+ * Окно хранится только в памяти: повторная доставка после перезапуска процесса не отсеивается.
+ */
+public final class UpdateDeduplicator {
+    // Простой, после которого Telegram может начать update_id заново
+    private static final long SEQUENCE_RESET_IDLE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    private final long[] bits;
+    private final int mask;
+
+    // Наибольший принятый update_id (-1 - обновлений еще не было)
+    private long highest = -1;
+
+    // Время последнего принятого обновления, мс
+    private long lastAcceptedMillis;
+
+    /**
+     * @param windowSize размер окна, идентификаторов (округляется вверх до степени двойки, не меньше 64)
+     */
+    public UpdateDeduplicator(int windowSize) {
+        if (windowSize <= 0 || windowSize > 1 << 30) {
+            throw new IllegalArgumentException("Некорректный размер окна дедупликации: " + windowSize);
+        }
+        int size = Math.max(Long.SIZE, Integer.highestOneBit(windowSize - 1) << 1);
+        this.bits = new long[size / Long.SIZE];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Отметить обновление как принятое.
+     * Критическая секция - несколько операций над массивом, поэтому используется монитор.
+     * @param updateId идентификатор обновления
+     * @return true, если обновление встретилось впервые
+     */
+    public boolean markSeen(long updateId) {
+        return markSeen(updateId, System.currentTimeMillis());
+    }
+
+    /**
+     * @param updateId идентификатор обновления
+     * @param nowMillis текущее время, мс
+     * @return true, если обновление встретилось впервые
+     */
+    synchronized boolean markSeen(long updateId, long nowMillis) {
+        if (updateId > highest) {
+            // Окно сдвигается: биты идентификаторов, вышедших из окна, сбрасываются
+            if (highest < 0 || updateId - highest > mask) {
+                Arrays.fill(bits, 0L);
+            } else {
+                for (long id = highest + 1; id < updateId; id++) {
+                    clear(id);
+                }
+            }
+            highest = updateId;
+            set(updateId);
+            lastAcceptedMillis = nowMillis;
+            return true;
+        }
+        if (highest - updateId > mask) {
+            if (nowMillis - lastAcceptedMillis < SEQUENCE_RESET_IDLE_MILLIS) {
+                // Устаревший повтор из-за пределов окна: состояние не меняется
+                return false;
+            }
+            // После долгого простоя последовательность началась заново с меньшего идентификатора
+            Arrays.fill(bits, 0L);
+            highest = updateId;
+            set(updateId);
+            lastAcceptedMillis = nowMillis;
+            return true;
+        }
+        int index = (int) (updateId & mask);
+        long bit = 1L << index;
+        if ((bits[index >>> 6] & bit) != 0) {
+            return false;
+        }
+        bits[index >>> 6] |= bit;
+        lastAcceptedMillis = nowMillis;
+        return true;
+    }
+
+    private void set(long id) {
+        int index = (int) (id & mask);
+        bits[index >>> 6] |= 1L << index;
+    }
+
+    private void clear(long id) {
+        int index = (int) (id & mask);
+        bits[index >>> 6] &= ~(1L << index);
+    }
+}
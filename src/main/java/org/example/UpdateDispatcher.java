@@ -0,0 +1,295 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Диспетчер обработки обновлений.
+ * Задачи одного чата выполняются строго по очереди (почтовый ящик чата),
+ * а разные чаты обрабатываются параллельно в пуле потоков ограниченного размера.
+ * Очереди ограничены: на один чат и на весь диспетчер.
+ *
+ * Задачи делятся на два класса: продолжение начатых сессий и новые обращения.
+ * Новые обращения принимаются, пока в очереди меньше maxNewPending задач, продолжения -
+ * до maxPending, поэтому при перегрузке первыми отклоняются новые обращения. Чаты с задачами
+ * продолжения также выполняются раньше чатов, где есть только новые обращения.
+ *
+ * Пул может обслуживать нескольких ботов одного процесса ({@link Tenant}): у каждого свои почтовые
+ * ящики, а очередь пула справедлива между ними (start-time fair queuing). Каждой очереди ящика
+ * присваивается виртуальное время max(текущее время пула, время предыдущей очереди бота) + 1,
+ * поэтому бот с длинной очередью не задерживает ботов с редкими сообщениями, а бот, долго
+ * не получавший сообщений, не получает накопленного преимущества.
+ */
+public class UpdateDispatcher implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(UpdateDispatcher.class);
+
+    // Сколько задач одного чата выполняется подряд, прежде чем уступить поток другим чатам
+    private static final int DRAIN_BATCH = 8;
+
+    private final ThreadPoolExecutor executor;
+
+    // Почтовые ящики обновлений, поставленных без указания бота
+    private final Tenant defaultTenant = new Tenant();
+
+    // Лимиты очередей: на один чат, суммарно и для новых обращений
+    private final int maxChatQueue;
+    private final int maxPending;
+    private final int maxNewPending;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    // Порядок постановки чатов в очередь пула (FIFO при равном виртуальном времени)
+    private final AtomicLong turnSequence = new AtomicLong();
+
+    // Виртуальное время пула: наибольшее время очереди, взятой на выполнение
+    private final AtomicLong virtualTime = new AtomicLong();
+
+    /**
+     * @param threads количество потоков обработки
+     * @param maxChatQueue максимальное число ожидающих задач одного чата
+     * @param maxPending максимальное число ожидающих задач всех чатов
+     * @param maxNewPending число ожидающих задач, после которого новые обращения отклоняются
+     */
+    public UpdateDispatcher(int threads, int maxChatQueue, int maxPending, int maxNewPending) {
+        if (threads <= 0 || maxChatQueue <= 0 || maxPending <= 0 || maxNewPending <= 0) {
+            throw new IllegalArgumentException("Параметры диспетчера должны быть положительными");
+        }
+        this.maxChatQueue = maxChatQueue;
+        this.maxPending = maxPending;
+        this.maxNewPending = Math.min(maxNewPending, maxPending);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(), r -> {
+                    Thread thread = new Thread(r, "update-worker-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Создает диспетчер по параметрам из config.env
+     * @param config конфигурация бота
+     * @return диспетчер
+     */
+    public static UpdateDispatcher fromConfig(BotConfig config) {
+        int maxPending = config.getInt("DISPATCH_MAX_PENDING", 10_000);
+        return new UpdateDispatcher(
+                config.getInt("DISPATCH_THREADS", 16),
+                config.getInt("DISPATCH_MAX_CHAT_QUEUE", 32),
+                maxPending,
+                config.getInt("DISPATCH_MAX_NEW_PENDING", maxPending * 3 / 4));
+    }
+
+    /**
+     * Поставить задачу продолжения (или служебную задачу) в очередь чата
+     * @param chatId идентификатор чата
+     * @param task задача обработки обновления
+     * @return false, если задача отклонена из-за переполнения очереди
+     */
+    public boolean submit(long chatId, Runnable task) {
+        return defaultTenant.submit(chatId, task, true);
+    }
+
+    /**
+     * Поставить задачу в очередь чата
+     * @param chatId идентификатор чата
+     * @param task задача обработки обновления
+     * @param active true - продолжение начатой сессии, false - новое обращение
+     * @return false, если задача отклонена из-за переполнения очереди
+     */
+    public boolean submit(long chatId, Runnable task, boolean active) {
+        return defaultTenant.submit(chatId, task, active);
+    }
+
+    /**
+     * Создает отдельный набор почтовых ящиков для бота, разделяющего этот пул с другими ботами
+     * @return набор ящиков бота
+     */
+    public Tenant newTenant() {
+        return new Tenant();
+    }
+
+    private void schedule(Mailbox mailbox) {
+        long tag = mailbox.tenant.nextTag(virtualTime.get());
+        executor.execute(new Turn(mailbox, mailbox.active, tag, turnSequence.incrementAndGet()));
+    }
+
+    /**
+     * @return число задач, ожидающих выполнения
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Почтовые ящики одного бота. Идентификаторы чатов разных ботов не пересекаются,
+     * даже если численно совпадают.
+     */
+    public final class Tenant {
+        private final Map<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+        private final AtomicInteger tenantPending = new AtomicInteger();
+
+        // Виртуальное время последней очереди ящика этого бота
+        private final AtomicLong lastTag = new AtomicLong();
+
+        private Tenant() {
+        }
+
+        /**
+         * Поставить задачу продолжения (или служебную задачу) в очередь чата
+         * @param chatId идентификатор чата
+         * @param task задача обработки обновления
+         * @return false, если задача отклонена из-за переполнения очереди
+         */
+        public boolean submit(long chatId, Runnable task) {
+            return submit(chatId, task, true);
+        }
+
+        /**
+         * Поставить задачу в очередь чата
+         * @param chatId идентификатор чата
+         * @param task задача обработки обновления
+         * @param active true - продолжение начатой сессии, false - новое обращение
+         * @return false, если задача отклонена из-за переполнения очереди
+         */
+        public boolean submit(long chatId, Runnable task, boolean active) {
+            if (pending.incrementAndGet() > (active ? maxPending : maxNewPending)) {
+                pending.decrementAndGet();
+                return false;
+            }
+            tenantPending.incrementAndGet();
+            boolean[] accepted = new boolean[1];
+            boolean[] schedule = new boolean[1];
+            // compute выполняется под блокировкой ячейки, что согласует добавление с удалением пустого ящика
+            Mailbox mailbox = mailboxes.compute(chatId, (key, existing) -> {
+                Mailbox box = existing != null ? existing : new Mailbox(this, key);
+                if (box.size.get() < maxChatQueue) {
+                    box.tasks.add(task);
+                    box.active |= active;
+                    accepted[0] = true;
+                    schedule[0] = box.size.getAndIncrement() == 0;
+                }
+                return box;
+            });
+            if (!accepted[0]) {
+                pending.decrementAndGet();
+                tenantPending.decrementAndGet();
+                return false;
+            }
+            if (schedule[0]) {
+                schedule(mailbox);
+            }
+            return true;
+        }
+
+        /**
+         * @return число задач бота, ожидающих выполнения
+         */
+        public int getPendingCount() {
+            return tenantPending.get();
+        }
+
+        private long nextTag(long now) {
+            return lastTag.updateAndGet(last -> Math.max(last, now) + 1);
+        }
+    }
+
+    /**
+     * Очередь задач одного чата. В каждый момент ее выполняет не более одного потока.
+     */
+    private final class Mailbox implements Runnable {
+        private final Tenant tenant;
+        private final long chatId;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        // Есть ли среди задач ящика продолжение сессии; изменяется под блокировкой ячейки mailboxes
+        private volatile boolean active;
+
+        private Mailbox(Tenant tenant, long chatId) {
+            this.tenant = tenant;
+            this.chatId = chatId;
+        }
+
+        @Override
+        public void run() {
+            for (int processed = 1; ; processed++) {
+                Runnable task = tasks.poll();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    logger.error("Ошибка обработки обновления для {}", chatId, e);
+                }
+                pending.decrementAndGet();
+                tenant.tenantPending.decrementAndGet();
+                if (size.decrementAndGet() == 0) {
+                    // Ящик пуст: удаляем его, если за это время не поступило новых задач
+                    tenant.mailboxes.compute(chatId, (key, box) -> box == this && size.get() == 0 ? null : box);
+                    return;
+                }
+                if (processed >= DRAIN_BATCH) {
+                    // Оставшиеся задачи чата выполнятся после задач других чатов
+                    schedule(this);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Очередь ящика на выполнение в пуле. Ящики с продолжениями сессий выполняются раньше,
+     * внутри класса - по виртуальному времени, при равном времени - в порядке постановки.
+     */
+    private final class Turn implements Runnable, Comparable<Turn> {
+        private final Mailbox mailbox;
+        private final boolean active;
+        private final long tag;
+        private final long sequence;
+
+        private Turn(Mailbox mailbox, boolean active, long tag, long sequence) {
+            this.mailbox = mailbox;
+            this.active = active;
+            this.tag = tag;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            virtualTime.accumulateAndGet(tag, Math::max);
+            mailbox.run();
+        }
+
+        @Override
+        public int compareTo(Turn other) {
+            if (active != other.active) {
+                return active ? -1 : 1;
+            }
+            if (tag != other.tag) {
+                return Long.compare(tag, other.tag);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Прогрев перед приемом обновлений: синтетические сессии по всем тестам каталога проходят
+ * весь путь обработки - разбор JSON обновления, диспетчер, маршрутизацию, сессии, подсчет
+ * результата и очередь отправки с транспортом-заглушкой. Классы Jackson, logback и
+ * telegrambots загружаются, а горячие методы компилируются JIT до первого настоящего пользователя.
+ *
+ * Прогрев выполняет отдельный временный бот без журнала и записи результатов, поэтому
+ * сессии, статистика и метрики основного бота не затрагиваются.
+ */
+public final class Warmup {
+    private static final Logger logger = LoggerFactory.getLogger(Warmup.class);
+
+    // Сколько сессий подается в диспетчер, прежде чем дождаться их обработки
+    private static final int BATCH_SESSIONS = 256;
+
+    // Идентификаторы чатов прогрева (не пересекаются с реальными чатами пользователей)
+    private static final long FIRST_CHAT_ID = Long.MIN_VALUE / 2;
+
+    private Warmup() {
+    }
+
+    /**
+     * Выполняет прогрев, если он включен в config.env
+     * @param config конфигурация процесса
+     * @return длительность прогрева, мс (0, если WARMUP_SESSIONS = 0)
+     */
+    public static long runFromConfig(BotConfig config) {
+        int sessions = config.getInt("WARMUP_SESSIONS", 2000);
+        return sessions > 0 ? run(config, sessions) : 0;
+    }
+
+    /**
+     * Прогоняет синтетические сессии по всем тестам каталога
+     * @param config конфигурация процесса (используется только источник каталога тестов)
+     * @param sessions количество сессий
+     * @return длительность прогрева, мс
+     */
+    public static long run(BotConfig config, int sessions) {
+        long started = System.nanoTime();
+        Map<String, String> values = new HashMap<>();
+        values.put("BOT_TOKEN", "warmup");
+        values.put("BOT_USERNAME", "warmup");
+        // Ограничения частоты отправки сняты: ответы не уходят дальше заглушки
+        values.put("OUTBOUND_GLOBAL_RATE", "1000000");
+        values.put("OUTBOUND_CHAT_RATE", "1000");
+        values.put("OUTBOUND_CHAT_BURST", "1000");
+        values.put("INBOUND_CHAT_BURST", "1000");
+        String catalogDir = config.get("CATALOG_DIR");
+        if (catalogDir != null) {
+            values.put("CATALOG_DIR", catalogDir);
+        }
+
+        ObjectMapper mapper = new ObjectMapper()
+                .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        MedicalDiagnosisBot bot = new MedicalDiagnosisBot(BotConfig.of(values),
+                message -> CompletableFuture.completedFuture(null));
+        AtomicInteger processed = new AtomicInteger();
+        int dispatched = 0;
+        int updateId = 0;
+        try {
+            List<DiagnosticTest> tests = bot.getCatalog().getTests();
+            for (int session = 0; session < sessions; session++) {
+                DiagnosticTest test = tests.get(session % tests.size());
+                long chatId = FIRST_CHAT_ID + session;
+                for (ObjectNode json : sessionUpdates(mapper, test, chatId, session)) {
+                    // Обновление проходит через сериализацию, чтобы прогреть разбор JSON
+                    json.put("update_id", ++updateId);
+                    Update update = mapper.readValue(mapper.writeValueAsBytes(json), Update.class);
+                    if (bot.dispatch(update, (reply, replyChatId) -> {
+                        bot.enqueueReply(reply, replyChatId);
+                        processed.incrementAndGet();
+                    })) {
+                        dispatched++;
+                    }
+                }
+                if ((session + 1) % BATCH_SESSIONS == 0) {
+                    awaitProcessed(processed, dispatched);
+                }
+            }
+            awaitProcessed(processed, dispatched);
+        } catch (IOException e) {
+            logger.warn("Прогрев прерван: ошибка разбора синтетического обновления", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            bot.onClosing();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        logger.info("Прогрев завершен за {} мс: {} сессий, {} обновлений", elapsedMillis, sessions, dispatched);
+        return elapsedMillis;
+    }
+
+    /**
+     * Обновления одной сессии. Сессии чередуют способы прохождения теста:
+     * ответы текстом, баллы всех параметров одной командой и кнопки inline-клавиатуры.
+     * Тест без команды можно пройти только кнопками; если и они не подходят, сессия пропускается.
+     */
+    private static List<ObjectNode> sessionUpdates(ObjectMapper mapper, DiagnosticTest test,
+                                                   long chatId, int session) {
+        int variant = session % 3;
+        boolean callbacks = CallbackAnswer.supports(test);
+        if (test.getCommand() == null || (variant == 2 && callbacks)) {
+            return callbacks ? callbackUpdates(mapper, test, chatId, session) : List.of();
+        }
+        if (variant == 1) {
+            return List.of(message(mapper, chatId, test.getCommand() + " " + BatchAnswer.example(test)));
+        }
+        // Ответы текстом; так же проходятся тесты, которые не помещаются в кнопки
+        int questions = test.getQuestionCount();
+        List<ObjectNode> updates = new ArrayList<>(questions + 1);
+        updates.add(message(mapper, chatId, test.getCommand()));
+        for (int q = 0; q < questions; q++) {
+            int answer = (session + q) % test.getQuestion(q).getAnswerCount();
+            updates.add(message(mapper, chatId, Integer.toString(answer + 1)));
+        }
+        return updates;
+    }
+
+    private static List<ObjectNode> callbackUpdates(ObjectMapper mapper, DiagnosticTest test,
+                                                    long chatId, int session) {
+        int questions = test.getQuestionCount();
+        List<ObjectNode> updates = new ArrayList<>(questions);
+        byte[] answers = new byte[questions];
+        for (int q = 0; q < questions; q++) {
+            int answer = (session + q) % test.getQuestion(q).getAnswerCount();
+            updates.add(callback(mapper, chatId, CallbackAnswer.encode(test, answers, q, answer)));
+            answers[q] = (byte) answer;
+        }
+        return updates;
+    }
+
+    private static ObjectNode message(ObjectMapper mapper, long chatId, String text) {
+        ObjectNode update = mapper.createObjectNode().put("update_id", 0);
+        ObjectNode message = update.putObject("message").put("message_id", 1).put("date", 0);
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        message.put("text", text);
+        return update;
+    }
+
+    private static ObjectNode callback(ObjectMapper mapper, long chatId, String data) {
+        ObjectNode update = mapper.createObjectNode().put("update_id", 0);
+        ObjectNode query = update.putObject("callback_query").put("id", "warmup");
+        query.putObject("from").put("id", 1).put("is_bot", false).put("first_name", "warmup");
+        ObjectNode message = query.putObject("message").put("message_id", 1).put("date", 0);
+        message.putObject("chat").put("id", chatId).put("type", "private");
+        query.put("data", data);
+        return update;
+    }
+
+    private static void awaitProcessed(AtomicInteger processed, int dispatched) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (processed.get() < dispatched) {
+            if (System.nanoTime() > deadline) {
+                logger.warn("Прогрев: не дождались обработки {} обновлений", dispatched - processed.get());
+                return;
+            }
+            Thread.sleep(1);
+        }
+    }
+}
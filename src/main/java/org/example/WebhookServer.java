@@ -0,0 +1,163 @@
+package org.example;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.telegram.telegrambots.meta.api.methods.send.SendMessage;
+import org.telegram.telegrambots.meta.api.objects.Update;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Встроенный HTTP-сервер для режима webhook.
+ * Принимает JSON с Update от Telegram и передает его в ту же маршрутизацию, что и long polling.
+ * Если ответ готов за inlineTimeout, он возвращается прямо в теле ответа webhook
+ * (Telegram выполнит метод sendMessage сам), иначе уходит через очередь отправки.
+ */
+public class WebhookServer implements AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(WebhookServer.class);
+
+    // Заголовок, в котором Telegram передает секрет, указанный при setWebhook
+    private static final String SECRET_HEADER = "X-Telegram-Bot-Api-Secret-Token";
+
+    private final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    private final MedicalDiagnosisBot bot;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final String secret;
+    private final long inlineTimeoutMillis;
+
+    /**
+     * @param bot бот, обрабатывающий обновления
+     * @param port порт HTTP-сервера
+     * @param path путь, на который Telegram отправляет обновления
+     * @param secret секрет для проверки запросов (null - без проверки)
+     * @param inlineTimeoutMillis сколько ждать ответ для возврата в теле webhook, мс
+     * @param threads количество потоков обработки запросов
+     * @throws IOException если не удалось открыть порт
+     */
+    public WebhookServer(MedicalDiagnosisBot bot, int port, String path, String secret,
+                         long inlineTimeoutMillis, int threads) throws IOException {
+        this.bot = bot;
+        this.secret = secret;
+        this.inlineTimeoutMillis = inlineTimeoutMillis;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "webhook-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext(path, this::handle);
+        server.setExecutor(executor);
+    }
+
+    /**
+     * Создает сервер по параметрам из config.env
+     * @param bot бот, обрабатывающий обновления
+     * @param config конфигурация бота
+     * @return сервер (еще не запущенный)
+     * @throws IOException если не удалось открыть порт
+     */
+    public static WebhookServer fromConfig(MedicalDiagnosisBot bot, BotConfig config) throws IOException {
+        return new WebhookServer(bot,
+                config.getInt("WEBHOOK_PORT", 8443),
+                config.get("WEBHOOK_PATH", "/webhook"),
+                config.get("WEBHOOK_SECRET"),
+                config.getLong("WEBHOOK_INLINE_TIMEOUT_MS", 2000),
+                config.getInt("WEBHOOK_THREADS", 16));
+    }
+
+    /**
+     * Запускает прием запросов
+     */
+    public void start() {
+        server.start();
+        logger.info("Webhook-сервер запущен на порту {}", server.getAddress().getPort());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            if (secret != null && !secret.equals(exchange.getRequestHeaders().getFirst(SECRET_HEADER))) {
+                logger.warn("Запрос webhook с неверным секретом от {}", exchange.getRemoteAddress());
+                exchange.sendResponseHeaders(401, -1);
+                return;
+            }
+
+            Update update;
+            try (InputStream body = exchange.getRequestBody()) {
+                update = mapper.readValue(body, Update.class);
+            } catch (IOException e) {
+                logger.warn("Некорректный JSON в запросе webhook", e);
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+
+            CompletableFuture<SendMessage> reply = new CompletableFuture<>();
+            long[] replyChatId = new long[1];
+            if (!bot.dispatch(update, (message, chatId) -> {
+                replyChatId[0] = chatId;
+                reply.complete(message);
+            })) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            SendMessage inline = awaitReply(reply);
+            if (inline == null) {
+                // Ответ не успел: отправим его обычным путем, когда будет готов
+                reply.thenAccept(message -> bot.enqueueReply(message, replyChatId[0]));
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+
+            byte[] response = mapper.writeValueAsBytes(inline);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        } catch (Exception e) {
+            // Telegram повторяет доставку при ответе с ошибкой, поэтому сбой обработки не пробрасываем
+            logger.error("Ошибка обработки запроса webhook", e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private SendMessage awaitReply(CompletableFuture<SendMessage> reply) throws InterruptedException {
+        try {
+            return reply.get(inlineTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            logger.error("Ошибка формирования ответа", e.getCause());
+            return null;
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdownNow();
+    }
+}